@@ -12,6 +12,8 @@ package de.elanev.studip.android.app.backend.datamodel;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import de.uni.hannover.studip.sync.datamodel.Pagination;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +25,7 @@ import java.util.Map;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Courses {
   public Map<String, Course> collection;
+  public Pagination pagination;
 
   /**
    * Default constructor that creates an empty courses ArrayList
@@ -11,6 +11,8 @@ import java.util.ArrayList;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import de.uni.hannover.studip.sync.datamodel.Pagination;
+
 /**
  * @author joern
  * 
@@ -19,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 public class DocumentFolders {
 	public ArrayList<DocumentFolder> subfolders;
 	public ArrayList<Document> file_refs;
+	public Pagination pagination;
 
 	public DocumentFolders() {
 		subfolders = new ArrayList<DocumentFolder>();
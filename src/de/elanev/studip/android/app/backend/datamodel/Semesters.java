@@ -15,6 +15,8 @@ import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import de.uni.hannover.studip.sync.datamodel.Pagination;
+
 /**
  * @author joern
  * 
@@ -23,6 +25,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 public class Semesters {
 
 	public Map<String, Semester> collection;
+	public Pagination pagination;
 
 	public Semesters() {
 		this.collection = new HashMap<String, Semester>();
@@ -0,0 +1,53 @@
+package de.uni.hannover.studip.sync.datamodel;
+
+/**
+ * Content index entry used for json object binding.
+ * 
+ * @author Lennart Glauer
+ */
+public class ContentIndexEntry {
+
+	/**
+	 * Stud.IP document id.
+	 */
+	public String documentId;
+
+	/**
+	 * Document name.
+	 */
+	public String name;
+
+	/**
+	 * File size.
+	 */
+	public Long fileSize;
+
+	/**
+	 * Path to local file.
+	 */
+	public String path;
+
+	/**
+	 * Last modified time of the local file in ms.
+	 */
+	public Long modifiedTime;
+
+	/**
+	 * Md5 hash of the local file.
+	 */
+	public String md5;
+
+	public ContentIndexEntry() {
+		// Needed for json object binding.
+	}
+
+	public ContentIndexEntry(final DocumentTreeNode document, final String path, final long modifiedTime, final String md5) {
+		this.documentId = document.documentId;
+		this.name = document.name;
+		this.fileSize = document.fileSize;
+		this.path = path;
+		this.modifiedTime = modifiedTime;
+		this.md5 = md5;
+	}
+
+}
@@ -0,0 +1,15 @@
+package de.uni.hannover.studip.sync.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content index used for json object binding.
+ * 
+ * @author Lennart Glauer
+ */
+public class ContentIndexFile {
+
+	public List<ContentIndexEntry> entries = new ArrayList<>();
+
+}
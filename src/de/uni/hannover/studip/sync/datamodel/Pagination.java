@@ -0,0 +1,32 @@
+package de.uni.hannover.studip.sync.datamodel;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Pagination metadata of a rest api collection used for json object binding.
+ * 
+ * @author Lennart Glauer
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Pagination {
+
+	/**
+	 * Total number of collection entries.
+	 */
+	public long total;
+
+	/**
+	 * Offset of this page.
+	 */
+	public long offset;
+
+	/**
+	 * Page size.
+	 */
+	public long limit;
+
+	public Pagination() {
+		// Needed for json object binding.
+	}
+
+}
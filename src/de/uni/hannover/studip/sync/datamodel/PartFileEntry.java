@@ -0,0 +1,66 @@
+package de.uni.hannover.studip.sync.datamodel;
+
+/**
+ * Partial download metadata used for json object binding.
+ * 
+ * @author Lennart Glauer
+ */
+public class PartFileEntry {
+
+	/**
+	 * Stud.IP document id.
+	 */
+	public String documentId;
+
+	/**
+	 * Document change date.
+	 */
+	public Long chDate;
+
+	/**
+	 * Expected file size.
+	 */
+	public Long fileSize;
+
+	/**
+	 * ETag response header of the first request.
+	 */
+	public String eTag;
+
+	/**
+	 * Last-Modified response header of the first request.
+	 */
+	public String lastModified;
+
+	/**
+	 * Number of bytes which were written to the part file (resume offset).
+	 * The part file is preallocated, so its size is not the resume offset.
+	 */
+	public Long offset;
+
+	public PartFileEntry() {
+		// Needed for json object binding.
+	}
+
+	public PartFileEntry(final DocumentTreeNode document, final String eTag, final String lastModified) {
+		this.documentId = document.documentId;
+		this.chDate = document.chDate;
+		this.fileSize = document.fileSize;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.offset = 0L;
+	}
+
+	/**
+	 * Check if the partial download belongs to this document version.
+	 * 
+	 * @param document Document tree-node
+	 * @return True, if id, change date and size are equal
+	 */
+	public boolean matches(final DocumentTreeNode document) {
+		return documentId != null && documentId.equals(document.documentId)
+				&& chDate != null && chDate.equals(document.chDate)
+				&& fileSize != null && fileSize.equals(document.fileSize);
+	}
+
+}
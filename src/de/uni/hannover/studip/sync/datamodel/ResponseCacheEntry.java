@@ -0,0 +1,41 @@
+package de.uni.hannover.studip.sync.datamodel;
+
+/**
+ * Response cache entry used for json object binding.
+ * 
+ * @author Lennart Glauer
+ */
+public class ResponseCacheEntry {
+
+	/**
+	 * Request url.
+	 */
+	public String url;
+
+	/**
+	 * ETag response header.
+	 */
+	public String eTag;
+
+	/**
+	 * Last-Modified response header.
+	 */
+	public String lastModified;
+
+	/**
+	 * Response body.
+	 */
+	public byte[] body;
+
+	public ResponseCacheEntry() {
+		// Needed for json object binding.
+	}
+
+	public ResponseCacheEntry(final String url, final String eTag, final String lastModified, final byte[] body) {
+		this.url = url;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.body = body;
+	}
+
+}
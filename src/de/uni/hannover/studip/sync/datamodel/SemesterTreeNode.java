@@ -21,6 +21,12 @@ public class SemesterTreeNode {
 	public long seminarsBegin;
 	public long seminarsEnd;
 
+	/* True if the courses of this semester were not crawled yet. */
+	public boolean stub;
+
+	/* Last update time of the course list. */
+	public long updateTime;
+
 	/* Child nodes. */
 	public final List<CourseTreeNode> courses = Collections.synchronizedList(new ArrayList<CourseTreeNode>());
 
@@ -36,4 +36,75 @@ public class SettingsFile {
 	 */
 	public int replaceWhitespaces;
 
+	/**
+	 * Maximum number of concurrent requests.
+	 */
+	public int maxConnections = 16;
+
+	/**
+	 * If true every job runs on its own virtual thread (Java 21+),
+	 * otherwise on a fixed size thread pool.
+	 */
+	public boolean virtualThreads;
+
+	/**
+	 * If true documents are downloaded while the tree is built,
+	 * otherwise the tree is built completely before the downloads start.
+	 */
+	public boolean pipelineSync = true;
+
+	/**
+	 * If true api requests are sent with the java http client (HTTP/2),
+	 * otherwise with scribe (HttpURLConnection).
+	 */
+	public boolean http2 = true;
+
+	/**
+	 * 0: Do not fsync downloaded files
+	 * 1: Fsync all downloaded files at the end of the sync
+	 * 2: Fsync every downloaded file before it is published
+	 */
+	public int durability;
+
+	/**
+	 * Download chunk size in bytes, every file write transfers up to one chunk.
+	 */
+	public int downloadChunkSize = 256 * 1024;
+
+	/**
+	 * Number of concurrent range requests for large documents, 1 disables segmented downloads.
+	 */
+	public int downloadSegments = 4;
+
+	/**
+	 * Maximum download bandwidth in KiB/s, 0 is unlimited.
+	 */
+	public int maxBandwidth;
+
+	/**
+	 * 0: Largest documents first
+	 * 1: Smallest documents first
+	 * 2: Documents of the current semester first
+	 * 3: Tree order
+	 */
+	public int downloadOrder;
+
+	/**
+	 * If true documents with the same name and size as an already downloaded
+	 * document are copied from the local file instead of downloaded.
+	 */
+	public boolean deduplicate = true;
+
+	/**
+	 * If true duplicates are hard linked instead of copied.
+	 * Saves disk space, but an edit of one file (e.g. pdf annotations) changes all of its links.
+	 */
+	public boolean hardLinkDuplicates;
+
+	/**
+	 * Download throughput per connection in bytes per second, measured by the last sync.
+	 * Used to predict the download time, 0 if not measured yet.
+	 */
+	public double connectionRate;
+
 }
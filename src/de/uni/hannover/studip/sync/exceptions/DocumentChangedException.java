@@ -0,0 +1,13 @@
+package de.uni.hannover.studip.sync.exceptions;
+
+import java.io.IOException;
+
+public class DocumentChangedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DocumentChangedException(final String message) {
+		super(message);
+	}
+	
+}
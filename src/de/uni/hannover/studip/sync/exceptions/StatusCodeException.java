@@ -0,0 +1,18 @@
+package de.uni.hannover.studip.sync.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Unexpected http status code.
+ * 
+ * Handled like a connection failure, so it only affects the current job.
+ */
+public class StatusCodeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StatusCodeException(final int code) {
+		super("Statuscode: " + code);
+	}
+	
+}
@@ -0,0 +1,265 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket bandwidth limiter for downloads.
+ * 
+ * All downloads share one bucket, which is refilled with the configured
+ * bytes per second (the setting can be changed while a sync is running).
+ * Waiting downloads of a higher priority class get tokens first,
+ * so small documents are not stuck behind large media files.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class BandwidthLimiter {
+
+	private static final Config CONFIG = Config.getInstance();
+	private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+	/**
+	 * Maximum wait time in ns until waiting downloads check the limit again.
+	 */
+	private static final long MAX_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Priority class of a download.
+	 */
+	public enum Priority {
+		HIGH, NORMAL, LOW;
+
+		/**
+		 * Documents smaller than this size in bytes are downloaded with high priority.
+		 */
+		private static final long SMALL_DOCUMENT = 4L * 1024 * 1024;
+
+		/**
+		 * Documents larger than this size in bytes are downloaded with low priority.
+		 */
+		private static final long LARGE_DOCUMENT = 64L * 1024 * 1024;
+
+		/**
+		 * Get priority class by document size.
+		 * 
+		 * @param size Document size in bytes or null if unknown
+		 * @return Priority class
+		 */
+		public static Priority forSize(final Long size) {
+			if (size == null) {
+				return NORMAL;
+			}
+
+			if (size < SMALL_DOCUMENT) {
+				return HIGH;
+			}
+
+			return size > LARGE_DOCUMENT ? LOW : NORMAL;
+		}
+	}
+
+	/**
+	 * Reentrant lock.
+	 * Does not pin virtual threads while waiting (unlike Object.wait).
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signaled if tokens might be available.
+	 */
+	private final Condition tokensAvailable = lock.newCondition();
+
+	/**
+	 * Available tokens in bytes, negative if a chunk was larger than the bucket.
+	 */
+	private double tokens;
+
+	/**
+	 * Time of the last refill in ns.
+	 */
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * Number of waiting downloads per priority class.
+	 */
+	private final int[] waiting = new int[Priority.values().length];
+
+	/**
+	 * Transferred bytes per priority class.
+	 */
+	private final long[] bytes = new long[Priority.values().length];
+
+	/**
+	 * Time of the first transfer in ns.
+	 */
+	private long firstTransfer;
+
+	/**
+	 * Time of the last transfer in ns.
+	 */
+	private long lastTransfer;
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return BandwidthLimiter instance
+	 */
+	public static BandwidthLimiter getInstance() {
+		return INSTANCE;
+	}
+
+	private BandwidthLimiter() {
+		// Use getInstance().
+	}
+
+	/**
+	 * Wait until the bytes may be transferred.
+	 * 
+	 * @param count Number of bytes
+	 * @param priority Priority class
+	 * @throws InterruptedException
+	 */
+	public void acquire(final int count, final Priority priority) throws InterruptedException {
+		lock.lock();
+		try {
+			waiting[priority.ordinal()]++;
+			try {
+				for (;;) {
+					final long rate = getRate();
+					refill(rate);
+
+					if (rate <= 0) {
+						/* Unlimited. */
+						break;
+					}
+
+					if (tokens > 0 && !isHigherPriorityWaiting(priority)) {
+						tokens -= count;
+						break;
+					}
+
+					final long delay = tokens > 0 ? MAX_WAIT : (long) (-tokens * 1e9 / rate) + 1;
+					tokensAvailable.awaitNanos(Math.min(delay, MAX_WAIT));
+				}
+
+			} finally {
+				waiting[priority.ordinal()]--;
+				tokensAvailable.signalAll();
+			}
+
+			final long now = System.nanoTime();
+			if (firstTransfer == 0) {
+				firstTransfer = now;
+			}
+			bytes[priority.ordinal()] += count;
+			lastTransfer = now;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Refill the bucket, it holds at most one second of tokens.
+	 * 
+	 * @param rate Bytes per second
+	 */
+	private void refill(final long rate) {
+		final long now = System.nanoTime();
+		tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+		lastRefill = now;
+	}
+
+	/**
+	 * Check if a download of a higher priority class is waiting.
+	 * 
+	 * @param priority Priority class
+	 * @return True, if a higher priority class is waiting
+	 */
+	private boolean isHigherPriorityWaiting(final Priority priority) {
+		for (int i = 0; i < priority.ordinal(); i++) {
+			if (waiting[i] > 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get configured bandwidth limit.
+	 * 
+	 * @return Bytes per second or 0 if unlimited
+	 */
+	public long getRate() {
+		return Math.max(0, CONFIG.getMaxBandwidth()) * 1024L;
+	}
+
+	/**
+	 * Get achieved throughput of a priority class.
+	 * All classes are measured over the same period (first to last transfer of any class).
+	 * 
+	 * @param priority Priority class
+	 * @return Bytes per second
+	 */
+	public long getThroughput(final Priority priority) {
+		lock.lock();
+		try {
+			final long duration = lastTransfer - firstTransfer;
+			return duration > 0 ? (long) (bytes[priority.ordinal()] * 1e9 / duration) : 0;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reset the throughput statistics, they are reported per sync.
+	 */
+	public void resetStats() {
+		lock.lock();
+		try {
+			Arrays.fill(bytes, 0);
+			firstTransfer = 0;
+			lastTransfer = 0;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get transferred bytes of a priority class.
+	 * 
+	 * @param priority Priority class
+	 * @return Bytes
+	 */
+	public long getBytes(final Priority priority) {
+		lock.lock();
+		try {
+			return bytes[priority.ordinal()];
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final long rate = getRate();
+		final StringBuilder sb = new StringBuilder("Bandwidth limit: ")
+				.append(rate > 0 ? rate / 1024 + " KiB/s" : "unlimited");
+
+		for (final Priority priority : Priority.values()) {
+			sb.append(", ").append(priority.name().toLowerCase(Locale.ENGLISH))
+					.append(": ").append(getThroughput(priority) / 1024).append(" KiB/s (")
+					.append(getBytes(priority) / 1024).append(" KiB)");
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,132 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per host circuit breaker.
+ * 
+ * After too many consecutive failures (or if the server sends a Retry-After header)
+ * the circuit opens and all requests to this host wait until the cooldown is over.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class CircuitBreaker {
+
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+	/**
+	 * Circuit breaker instances by host.
+	 */
+	private static final Map<String, CircuitBreaker> INSTANCES = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of consecutive failures until the circuit opens.
+	 */
+	private static final int FAILURE_THRESHOLD = 3;
+
+	/**
+	 * Initial cooldown in ms, doubled for every further failure.
+	 */
+	private static final long BASE_COOLDOWN = 5 * 1000L;
+
+	/**
+	 * Maximum cooldown in ms.
+	 */
+	private static final long MAX_COOLDOWN = 5 * 60 * 1000L;
+
+	/**
+	 * Host name.
+	 */
+	private final String host;
+
+	/**
+	 * Number of consecutive failures.
+	 */
+	private final AtomicInteger failures = new AtomicInteger();
+
+	/**
+	 * Circuit is open until this timestamp (ms).
+	 */
+	private volatile long openUntil;
+
+	/**
+	 * Get circuit breaker for the host of the given url.
+	 * 
+	 * @param url Request url
+	 * @return Circuit breaker instance
+	 */
+	public static CircuitBreaker forUrl(final String url) {
+		final String host = URI.create(url).getHost();
+
+		return INSTANCES.computeIfAbsent(host == null ? "" : host, CircuitBreaker::new);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param host Host name
+	 */
+	private CircuitBreaker(final String host) {
+		this.host = host;
+	}
+
+	/**
+	 * Wait until the circuit is closed.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		long wait;
+		while ((wait = openUntil - System.currentTimeMillis()) > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	/**
+	 * Successful request.
+	 */
+	public void onSuccess() {
+		failures.set(0);
+	}
+
+	/**
+	 * Failed request (timeout or server overloaded).
+	 * 
+	 * @param retryAfter Cooldown requested by the server in ms or 0
+	 */
+	public void onFailure(final long retryAfter) {
+		final int n = failures.incrementAndGet();
+		if (n < FAILURE_THRESHOLD && retryAfter <= 0) {
+			return;
+		}
+
+		final long cooldown = Math.max(retryAfter,
+				Math.min(MAX_COOLDOWN, BASE_COOLDOWN << Math.min(Math.max(0, n - FAILURE_THRESHOLD), 16)));
+		final long until = System.currentTimeMillis() + Math.min(MAX_COOLDOWN, cooldown);
+
+		synchronized (this) {
+			if (until > openUntil) {
+				openUntil = until;
+
+				if (LOG.isLoggable(Level.WARNING)) {
+					LOG.warning("Server " + host + " overloaded, pausing requests for " + (until - System.currentTimeMillis()) + "ms");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the circuit is open.
+	 * 
+	 * @return True, if requests are paused
+	 */
+	public boolean isOpen() {
+		return openUntil > System.currentTimeMillis();
+	}
+}
@@ -28,6 +28,8 @@ public final class Config {
 	private static final String SETTINGS_FILE_NAME = "config.json";
 	private static final String OAUTH_FILE_NAME = "oauth.json";
 	private static final String TREE_FILE_NAME = "tree.json";
+	private static final String CACHE_DIR_NAME = "cache";
+	private static final String CONTENT_INDEX_FILE_NAME = "content-index.json";
 
 	private final ConfigFile<SettingsFile> settings;
 	private final ConfigFile<OAuthFile> oauth;
@@ -78,6 +80,36 @@ public final class Config {
 		return configDir.resolve(TREE_FILE_NAME);
 	}
 
+	/**
+	 * Open content index file.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public static Path openContentIndexFile() throws IOException {
+		final Path configDir = Paths.get(System.getProperty("user.home"), CONFIG_DIR);
+		if (!Files.isDirectory(configDir)) {
+			Files.createDirectory(configDir);
+		}
+
+		return configDir.resolve(CONTENT_INDEX_FILE_NAME);
+	}
+
+	/**
+	 * Open response cache directory.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public static Path openCacheDirectory() throws IOException {
+		final Path cacheDir = Paths.get(System.getProperty("user.home"), CONFIG_DIR, CACHE_DIR_NAME);
+		if (!Files.isDirectory(cacheDir)) {
+			Files.createDirectories(cacheDir);
+		}
+
+		return cacheDir;
+	}
+
 	/**
 	 * Init oauth config file.
 	 * 
@@ -233,6 +265,357 @@ public final class Config {
 		}
 	}
 
+	/**
+	 * Get maximum number of concurrent requests.
+	 */
+	public int getMaxConnections() {
+		settings.lock.readLock().lock();
+		try {
+			return Math.max(1, settings.data.maxConnections);
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set maximum number of concurrent requests.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setMaxConnections(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.maxConnections = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if virtual threads setting is enabled.
+	 */
+	public boolean isVirtualThreads() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.virtualThreads;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set virtual threads setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setVirtualThreads(final boolean value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.virtualThreads = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if pipeline sync setting is enabled.
+	 */
+	public boolean isPipelineSync() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.pipelineSync;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set pipeline sync setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setPipelineSync(final boolean value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.pipelineSync = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if http2 setting is enabled.
+	 */
+	public boolean isHttp2() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.http2;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set http2 setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setHttp2(final boolean value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.http2 = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get durability setting.
+	 */
+	public int getDurability() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.durability;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set durability setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setDurability(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.durability = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get download chunk size setting.
+	 */
+	public int getDownloadChunkSize() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.downloadChunkSize;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set download chunk size setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setDownloadChunkSize(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.downloadChunkSize = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get download segments setting.
+	 */
+	public int getDownloadSegments() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.downloadSegments;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set download segments setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setDownloadSegments(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.downloadSegments = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get max bandwidth setting.
+	 */
+	public int getMaxBandwidth() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.maxBandwidth;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set max bandwidth setting.
+	 * Running downloads adopt the new limit immediately.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setMaxBandwidth(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.maxBandwidth = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get download order setting.
+	 */
+	public int getDownloadOrder() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.downloadOrder;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set download order setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setDownloadOrder(final int value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.downloadOrder = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if deduplicate setting is enabled.
+	 */
+	public boolean isDeduplicate() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.deduplicate;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set deduplicate setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setDeduplicate(final boolean value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.deduplicate = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if hard link duplicates setting is enabled.
+	 */
+	public boolean isHardLinkDuplicates() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.hardLinkDuplicates;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set hard link duplicates setting.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setHardLinkDuplicates(final boolean value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.hardLinkDuplicates = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get measured download throughput per connection.
+	 * 
+	 * @return Bytes per second or 0 if not measured yet
+	 */
+	public double getConnectionRate() {
+		settings.lock.readLock().lock();
+		try {
+			return settings.data.connectionRate;
+
+		} finally {
+			settings.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Set measured download throughput per connection.
+	 * 
+	 * @throws IOException 
+	 */
+	public void setConnectionRate(final double value) throws IOException {
+		settings.lock.writeLock().lock();
+		try {
+			settings.data.connectionRate = value;
+			settings.write();
+
+		} finally {
+			settings.lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * Get logged in user firstname.
 	 */
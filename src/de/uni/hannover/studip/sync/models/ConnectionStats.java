@@ -0,0 +1,175 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Connection pool and transfer statistics.
+ * 
+ * New connections are counted by the tls context of the transports,
+ * every other request reused a keep-alive connection.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class ConnectionStats {
+
+	private static final ConnectionStats INSTANCE = new ConnectionStats();
+
+	/**
+	 * Number of sent requests.
+	 */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Number of opened (tls) connections.
+	 */
+	private final AtomicLong opened = new AtomicLong();
+
+	/**
+	 * Number of responses which were read or drained completely (connection reusable).
+	 */
+	private final AtomicLong drained = new AtomicLong();
+
+	/**
+	 * Number of responses which were aborted (connection closed).
+	 */
+	private final AtomicLong aborted = new AtomicLong();
+
+	/**
+	 * Number of json response body bytes transferred (compressed).
+	 */
+	private final AtomicLong bytesTransferred = new AtomicLong();
+
+	/**
+	 * Number of json response body bytes after decoding.
+	 */
+	private final AtomicLong bytesDecoded = new AtomicLong();
+
+	/**
+	 * Tls context which counts opened connections.
+	 */
+	private final SSLContext sslContext;
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return ConnectionStats instance
+	 */
+	public static ConnectionStats getInstance() {
+		return INSTANCE;
+	}
+
+	private ConnectionStats() {
+		try {
+			sslContext = new CountingSSLContext(SSLContext.getDefault(), opened);
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get tls context which counts opened connections.
+	 * 
+	 * @return SSL context
+	 */
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Count sent request.
+	 */
+	public void onRequest() {
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Count drained response.
+	 */
+	public void onDrain() {
+		drained.incrementAndGet();
+	}
+
+	/**
+	 * Count aborted response.
+	 */
+	public void onAbort() {
+		aborted.incrementAndGet();
+	}
+
+	/**
+	 * Count json response body size.
+	 * 
+	 * @param transferred Number of bytes transferred
+	 * @param decoded Number of bytes after decoding
+	 */
+	public void onTransfer(final long transferred, final long decoded) {
+		bytesTransferred.addAndGet(transferred);
+		bytesDecoded.addAndGet(decoded);
+	}
+
+	/**
+	 * Get number of json response body bytes transferred.
+	 * 
+	 * @return
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+
+	/**
+	 * Get number of json response body bytes after decoding.
+	 * 
+	 * @return
+	 */
+	public long getBytesDecoded() {
+		return bytesDecoded.get();
+	}
+
+	/**
+	 * Get number of opened connections.
+	 * 
+	 * @return
+	 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Get number of requests which reused a connection.
+	 * 
+	 * @return
+	 */
+	public long getReused() {
+		return Math.max(0, requests.get() - opened.get());
+	}
+
+	/**
+	 * Get number of responses which were read or drained completely.
+	 * 
+	 * @return
+	 */
+	public long getDrained() {
+		return drained.get();
+	}
+
+	/**
+	 * Get number of aborted responses.
+	 * 
+	 * @return
+	 */
+	public long getAborted() {
+		return aborted.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Connections opened: " + getOpened() + ", reused: " + getReused()
+				+ ", responses drained: " + getDrained() + ", aborted: " + getAborted()
+				+ ", json bytes transferred: " + getBytesTransferred() + ", decoded: " + getBytesDecoded();
+	}
+}
@@ -0,0 +1,312 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.uni.hannover.studip.sync.datamodel.ContentIndexEntry;
+import de.uni.hannover.studip.sync.datamodel.ContentIndexFile;
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.utils.FileHash;
+
+/**
+ * Persistent content index of downloaded documents.
+ * 
+ * The same document is often uploaded to several courses (lecture, exercise, tutor groups).
+ * A document with the same name and size as a verified local file is copied
+ * (or hard linked, if enabled) from that file instead of being downloaded again.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class ContentIndex {
+
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+	private static final ObjectMapper MAPPER = Config.getMapper();
+	private static final Config CONFIG = Config.getInstance();
+	private static final ContentIndex INSTANCE = new ContentIndex();
+
+	/**
+	 * Entries by name and size.
+	 */
+	private final Map<String, ContentIndexEntry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Path to index file or null if the index is disabled.
+	 */
+	private final Path indexFile;
+
+	/**
+	 * True if the index was changed since it was loaded.
+	 */
+	private volatile boolean isDirty;
+
+	/**
+	 * Number of documents copied or linked from a local twin.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of download bytes saved.
+	 */
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return ContentIndex instance
+	 */
+	public static ContentIndex getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	private ContentIndex() {
+		Path path;
+		try {
+			path = Config.openContentIndexFile();
+
+		} catch (IOException e) {
+			/* Deduplication is an optimization only, documents are downloaded without it. */
+			path = null;
+
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Content index disabled: " + e.getMessage());
+			}
+		}
+
+		indexFile = path;
+		if (indexFile == null) {
+			return;
+		}
+
+		try (final InputStream is = Files.newInputStream(indexFile)) {
+			final ContentIndexFile file = MAPPER.readerFor(ContentIndexFile.class).readValue(is);
+
+			for (final ContentIndexEntry entry : file.entries) {
+				entries.put(toKey(entry.name, entry.fileSize), entry);
+			}
+
+		} catch (NoSuchFileException e) {
+			/* Empty index. */
+
+		} catch (IOException e) {
+			/* Invalid index file, the index is rebuilt by the next downloads. */
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not read content index!");
+			}
+		}
+	}
+
+	/**
+	 * Map name and size to index key.
+	 * 
+	 * @param name Document name
+	 * @param fileSize File size
+	 * @return Index key
+	 */
+	private static String toKey(final String name, final Long fileSize) {
+		return fileSize + "/" + name;
+	}
+
+	/**
+	 * Create the file from a verified local twin.
+	 * 
+	 * The twin is copied, because users edit their documents (e.g. pdf annotations) and a link
+	 * would change all copies. Hard links are an opt-in setting, they are only used if the twin
+	 * has the same modified time as the document: a link shares the modified time and the
+	 * change detection of the twin must not be affected.
+	 * 
+	 * @param document Document tree-node
+	 * @param documentFile Path to document file destination
+	 * @param file Path to the file which is created
+	 * @return True, if the file was created from a twin
+	 */
+	public boolean copyTwin(final DocumentTreeNode document, final Path documentFile, final Path file) {
+		if (indexFile == null || document.fileSize == null) {
+			/* Unknown size, the twin can not be matched. */
+			return false;
+		}
+
+		final ContentIndexEntry entry = entries.get(toKey(document.name, document.fileSize));
+		if (entry == null || entry.path == null || document.documentId.equals(entry.documentId)) {
+			/* No twin or an old version of the same document. */
+			return false;
+		}
+
+		final Path twin = Paths.get(entry.path);
+		if (twin.equals(documentFile)) {
+			return false;
+		}
+
+		try {
+			if (!isVerified(entry, twin)) {
+				entries.remove(toKey(entry.name, entry.fileSize), entry);
+				isDirty = true;
+				return false;
+			}
+
+			Files.deleteIfExists(file);
+
+			if (CONFIG.isHardLinkDuplicates() && document.chDate != null
+					&& entry.modifiedTime.longValue() == document.chDate * 1000L) {
+				try {
+					Files.createLink(file, twin);
+
+				} catch (UnsupportedOperationException | IOException e) {
+					Files.copy(twin, file);
+				}
+
+			} else {
+				Files.copy(twin, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+		} catch (IOException | NoSuchAlgorithmException e) {
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not copy " + twin + ": " + e.getMessage());
+			}
+			return false;
+		}
+
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(document.fileSize);
+
+		if (LOG.isLoggable(Level.INFO)) {
+			LOG.info("Deduplicated: " + document.name + " from " + twin);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check if the local file still has the indexed content.
+	 * 
+	 * @param entry Index entry
+	 * @param file Path to local file
+	 * @return True, if size, modified time and md5 hash are unchanged
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	private static boolean isVerified(final ContentIndexEntry entry, final Path file) throws IOException, NoSuchAlgorithmException {
+		/* Entries of an old or edited index file might be incomplete. */
+		if (entry.fileSize == null || entry.modifiedTime == null || entry.md5 == null) {
+			return false;
+		}
+
+		return Files.isRegularFile(file)
+				&& Files.size(file) == entry.fileSize
+				&& Files.getLastModifiedTime(file).toMillis() == entry.modifiedTime
+				&& FileHash.getMd5(file.toFile()).equals(entry.md5);
+	}
+
+	/**
+	 * Add downloaded document to the index.
+	 * 
+	 * @param document Document tree-node
+	 * @param documentFile Path to document file
+	 */
+	public void put(final DocumentTreeNode document, final Path documentFile) {
+		if (indexFile == null) {
+			return;
+		}
+
+		try {
+			entries.put(toKey(document.name, document.fileSize), new ContentIndexEntry(document, documentFile.toString(),
+					Files.getLastModifiedTime(documentFile).toMillis(), FileHash.getMd5(documentFile.toFile())));
+			isDirty = true;
+
+		} catch (IOException | NoSuchAlgorithmException e) {
+			/* The index is best effort only. */
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not index " + documentFile);
+			}
+		}
+	}
+
+	/**
+	 * Store index file if it was changed.
+	 * 
+	 * The index is written to a temp file and moved over the index file,
+	 * so a crash during the write does not lose the previous index.
+	 */
+	public void save() {
+		if (indexFile == null || !isDirty) {
+			return;
+		}
+
+		isDirty = false;
+
+		final ContentIndexFile file = new ContentIndexFile();
+		file.entries.addAll(entries.values());
+
+		Path tempFile = null;
+		try {
+			tempFile = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+			try (final OutputStream os = Files.newOutputStream(tempFile)) {
+				MAPPER.writerFor(ContentIndexFile.class).writeValue(os, file);
+			}
+
+			try {
+				Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE);
+
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+		} catch (IOException e) {
+			isDirty = true;
+
+			if (tempFile != null) {
+				try {
+					Files.deleteIfExists(tempFile);
+
+				} catch (IOException e1) {
+					// Ignore.
+				}
+			}
+
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not write content index!");
+			}
+		}
+	}
+
+	/**
+	 * Get number of documents created from a local twin.
+	 * 
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of download bytes saved.
+	 * 
+	 * @return
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Deduplicated documents: " + getHits() + ", bytes saved: " + getBytesSaved();
+	}
+}
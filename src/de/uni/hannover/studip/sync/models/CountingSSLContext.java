@@ -0,0 +1,160 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Tls context which counts opened client connections.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+final class CountingSSLContext extends SSLContext {
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param delegate Initialized tls context
+	 * @param counter Opened connections counter
+	 */
+	CountingSSLContext(final SSLContext delegate, final AtomicLong counter) {
+		super(new Spi(delegate, counter), delegate.getProvider(), delegate.getProtocol());
+	}
+
+	/**
+	 * Delegating service provider.
+	 */
+	private static final class Spi extends SSLContextSpi {
+
+		private final SSLContext delegate;
+		private final AtomicLong counter;
+		private final SSLSocketFactory socketFactory;
+
+		Spi(final SSLContext delegate, final AtomicLong counter) {
+			this.delegate = delegate;
+			this.counter = counter;
+			this.socketFactory = new CountingSocketFactory(delegate.getSocketFactory(), counter);
+		}
+
+		@Override
+		protected void engineInit(final KeyManager[] km, final TrustManager[] tm, final SecureRandom sr) throws KeyManagementException {
+			// Delegate is already initialized.
+		}
+
+		@Override
+		protected SSLSocketFactory engineGetSocketFactory() {
+			return socketFactory;
+		}
+
+		@Override
+		protected SSLServerSocketFactory engineGetServerSocketFactory() {
+			return delegate.getServerSocketFactory();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine() {
+			counter.incrementAndGet();
+			return delegate.createSSLEngine();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine(final String host, final int port) {
+			counter.incrementAndGet();
+			return delegate.createSSLEngine(host, port);
+		}
+
+		@Override
+		protected SSLSessionContext engineGetServerSessionContext() {
+			return delegate.getServerSessionContext();
+		}
+
+		@Override
+		protected SSLSessionContext engineGetClientSessionContext() {
+			return delegate.getClientSessionContext();
+		}
+
+		@Override
+		protected SSLParameters engineGetDefaultSSLParameters() {
+			return delegate.getDefaultSSLParameters();
+		}
+
+		@Override
+		protected SSLParameters engineGetSupportedSSLParameters() {
+			return delegate.getSupportedSSLParameters();
+		}
+	}
+
+	/**
+	 * Delegating socket factory.
+	 */
+	private static final class CountingSocketFactory extends SSLSocketFactory {
+
+		private final SSLSocketFactory delegate;
+		private final AtomicLong counter;
+
+		CountingSocketFactory(final SSLSocketFactory delegate, final AtomicLong counter) {
+			this.delegate = delegate;
+			this.counter = counter;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket();
+		}
+
+		@Override
+		public Socket createSocket(final Socket s, final String host, final int port, final boolean autoClose) throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket(s, host, port, autoClose);
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port) throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket(host, port, localHost, localPort);
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress host, final int port) throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort) throws IOException {
+			counter.incrementAndGet();
+			return delegate.createSocket(address, port, localAddress, localPort);
+		}
+	}
+}
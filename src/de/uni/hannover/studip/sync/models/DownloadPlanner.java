@@ -0,0 +1,211 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+
+/**
+ * Download planner.
+ * 
+ * Collects the pending downloads of a sync, so they can be submitted in the order
+ * of the selected policy and the completion time can be predicted up front.
+ * 
+ * @author Lennart Glauer
+ */
+public final class DownloadPlanner {
+
+	private static final Config CONFIG = Config.getInstance();
+
+	/**
+	 * Largest documents first, minimizes the total sync time.
+	 */
+	public static final int LARGEST_FIRST = 0;
+
+	/**
+	 * Smallest documents first, new slides show up sooner.
+	 */
+	public static final int SMALLEST_FIRST = 1;
+
+	/**
+	 * Documents of the current semester first (largest first within).
+	 */
+	public static final int CURRENT_SEMESTER_FIRST = 2;
+
+	/**
+	 * Tree order.
+	 */
+	public static final int TREE_ORDER = 3;
+
+	/**
+	 * Assumed request latency in seconds for the prediction.
+	 */
+	private static final double LATENCY = 0.2;
+
+	/**
+	 * Assumed throughput per connection in bytes per second, until the first sync measured it.
+	 */
+	private static final double DEFAULT_CONNECTION_RATE = 1024 * 1024;
+
+	/**
+	 * Pending download.
+	 */
+	public static final class Download {
+
+		/**
+		 * Parent folder node.
+		 */
+		public final DocumentFolderTreeNode folderNode;
+
+		/**
+		 * Document node.
+		 */
+		public final DocumentTreeNode documentNode;
+
+		/**
+		 * Path to document file destination.
+		 */
+		public final Path documentFile;
+
+		/**
+		 * True if the document belongs to the current semester.
+		 */
+		public final boolean currentSemester;
+
+		private Download(final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path documentFile, final boolean currentSemester) {
+			this.folderNode = folderNode;
+			this.documentNode = documentNode;
+			this.documentFile = documentFile;
+			this.currentSemester = currentSemester;
+		}
+
+		private long getSize() {
+			return documentNode.fileSize == null ? 0 : documentNode.fileSize;
+		}
+	}
+
+	/**
+	 * Pending downloads in tree order.
+	 */
+	private final List<Download> downloads = new ArrayList<>();
+
+	/**
+	 * Total size of all pending downloads in bytes.
+	 */
+	private long bytes;
+
+	/**
+	 * Add pending download.
+	 * 
+	 * @param folderNode Parent folder tree-node
+	 * @param documentNode Document tree-node
+	 * @param documentFile Path to document file destination
+	 * @param currentSemester True if the document belongs to the current semester
+	 */
+	public void add(final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path documentFile, final boolean currentSemester) {
+		final Download download = new Download(folderNode, documentNode, documentFile, currentSemester);
+		downloads.add(download);
+		bytes += download.getSize();
+	}
+
+	/**
+	 * Get pending downloads in the order of the policy.
+	 * 
+	 * @param policy Download order policy
+	 * @return Ordered downloads
+	 */
+	public List<Download> plan(final int policy) {
+		final Comparator<Download> largestFirst = Comparator.comparingLong(Download::getSize).reversed();
+		final List<Download> plan = new ArrayList<>(downloads);
+
+		/* List.sort is stable, equal documents keep the tree order. */
+		switch (policy) {
+		case LARGEST_FIRST:
+			plan.sort(largestFirst);
+			break;
+		case SMALLEST_FIRST:
+			plan.sort(Comparator.comparingLong(Download::getSize));
+			break;
+		case CURRENT_SEMESTER_FIRST:
+			plan.sort(Comparator.<Download, Boolean>comparing(download -> !download.currentSemester).thenComparing(largestFirst));
+			break;
+		default:
+			break;
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Predict the time until all downloads are done.
+	 * 
+	 * Simulates the downloads in plan order on the given number of connections:
+	 * Every download starts on the connection which is free first.
+	 * 
+	 * @param plan Ordered downloads
+	 * @param connections Number of concurrent connections
+	 * @return Predicted time in ms
+	 */
+	public long predict(final List<Download> plan, final int connections) {
+		final double rate = CONFIG.getConnectionRate() > 0 ? CONFIG.getConnectionRate() : DEFAULT_CONNECTION_RATE;
+		final PriorityQueue<Double> finishTimes = new PriorityQueue<>();
+		for (int i = 0; i < Math.max(1, connections); i++) {
+			finishTimes.add(0.0);
+		}
+
+		double makespan = 0;
+		for (final Download download : plan) {
+			final double finishTime = finishTimes.poll() + LATENCY + download.getSize() / rate;
+			finishTimes.add(finishTime);
+			makespan = Math.max(makespan, finishTime);
+		}
+
+		/* The bandwidth limit caps the total throughput. */
+		final long bandwidth = BandwidthLimiter.getInstance().getRate();
+		if (bandwidth > 0) {
+			makespan = Math.max(makespan, (double) bytes / bandwidth);
+		}
+
+		return (long) (makespan * 1000);
+	}
+
+	/**
+	 * Measured download time, improves the next prediction.
+	 * The throughput is stored in the settings, so it is known after a restart.
+	 * 
+	 * @param time Actual time in ms
+	 * @param connections Number of concurrent connections
+	 * @throws IOException
+	 */
+	public void onDone(final long time, final int connections) throws IOException {
+		if (bytes < 1024 * 1024 || time <= 0) {
+			/* Too small for a meaningful measurement. */
+			return;
+		}
+
+		CONFIG.setConnectionRate(bytes * 1000.0 / time / Math.max(1, Math.min(connections, downloads.size())));
+	}
+
+	/**
+	 * Get number of pending downloads.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return downloads.size();
+	}
+
+	/**
+	 * Get total size of all pending downloads.
+	 * 
+	 * @return Bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,185 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Filename index of one local directory.
+ * 
+ * Merged folders (and default folders) share one directory, so their listings are
+ * fetched in parallel but merged one after another in the order of registration.
+ * This keeps name conflict resolution deterministic across runs.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class FileIndex {
+
+	/**
+	 * Merge step of a folder listing.
+	 */
+	@FunctionalInterface
+	public interface Merge {
+
+		/**
+		 * Merge the folder listing into the directory.
+		 * 
+		 * @param names Used (lowercase) names of the directory
+		 * @return Future of the started child jobs
+		 * @throws IOException
+		 */
+		CompletableFuture<Void> apply(Set<String> names) throws IOException;
+	}
+
+	/**
+	 * Position of one folder listing in the merge order.
+	 */
+	public final class Slot {
+
+		/**
+		 * Completed with the child jobs once merged.
+		 */
+		private final CompletableFuture<CompletableFuture<Void>> result = new CompletableFuture<>();
+
+		/**
+		 * Merge step or null if there is nothing to merge.
+		 */
+		private Merge merge;
+
+		/**
+		 * True if the listing is ready to be merged.
+		 */
+		private boolean ready;
+
+		/**
+		 * Child jobs of the merge step.
+		 */
+		private CompletableFuture<Void> jobs;
+
+		/**
+		 * Exception of the merge step.
+		 */
+		private Exception error;
+
+		private Slot() {
+			// Use FileIndex.register().
+		}
+
+		/**
+		 * Listing fetched, merge it as soon as all previous slots are merged.
+		 * 
+		 * @param merge Merge step
+		 * @return Future which completes once the merge and its child jobs are done
+		 */
+		public CompletableFuture<Void> complete(final Merge merge) {
+			FileIndex.this.complete(this, merge);
+			return result.thenCompose(jobs -> jobs);
+		}
+
+		/**
+		 * Get file index of this slot.
+		 * 
+		 * @return File index
+		 */
+		public FileIndex getFileIndex() {
+			return FileIndex.this;
+		}
+
+		/**
+		 * Nothing to merge (job failed or was cancelled), do not block the following slots.
+		 */
+		public void cancel() {
+			FileIndex.this.complete(this, null);
+		}
+	}
+
+	/**
+	 * Used (lowercase) names, only accessed within a merge step.
+	 */
+	final Set<String> names = new HashSet<>();
+
+	/**
+	 * Registered slots in merge order.
+	 */
+	private final List<Slot> slots = new ArrayList<>();
+
+	/**
+	 * Index of the next slot to merge.
+	 */
+	private int next;
+
+	/**
+	 * True while a merge step is running.
+	 */
+	private boolean merging;
+
+	/**
+	 * Register a folder listing, the merge order is the order of registration.
+	 * 
+	 * @return Slot
+	 */
+	public synchronized Slot register() {
+		final Slot slot = new Slot();
+		slots.add(slot);
+		return slot;
+	}
+
+	/**
+	 * Mark slot as ready and merge all ready slots in order.
+	 * 
+	 * @param slot
+	 * @param merge Merge step or null
+	 */
+	private void complete(final Slot slot, final Merge merge) {
+		final List<Slot> merged = new ArrayList<>();
+
+		synchronized (this) {
+			if (slot.ready) {
+				return;
+			}
+
+			slot.merge = merge;
+			slot.ready = true;
+
+			if (merging) {
+				/* Slot was registered by the running merge step, which picks it up. */
+				return;
+			}
+
+			merging = true;
+			try {
+				while (next < slots.size() && slots.get(next).ready) {
+					final Slot current = slots.get(next++);
+
+					try {
+						current.jobs = current.merge == null
+								? CompletableFuture.completedFuture(null)
+								: current.merge.apply(names);
+
+					} catch (IOException | RuntimeException e) {
+						current.error = e;
+					}
+
+					merged.add(current);
+				}
+
+			} finally {
+				merging = false;
+			}
+		}
+
+		/* Complete futures outside of the lock, dependent actions run in this thread. */
+		for (final Slot current : merged) {
+			if (current.error != null) {
+				current.result.completeExceptionally(current.error);
+
+			} else {
+				current.result.complete(current.jobs);
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.datamodel.Pagination;
+
+/**
+ * Streaming folder listing parser.
+ * 
+ * Reads the json tokens of a folder listing straight into tree nodes,
+ * without binding the DocumentFolders/DocumentFolder/Document datamodels first.
+ * Unknown fields are skipped.
+ * 
+ * @author Lennart Glauer
+ */
+public final class FolderListingParser {
+
+	private static final JsonFactory FACTORY = Config.getMapper().getFactory();
+
+	private FolderListingParser() {
+		// Utility class.
+	}
+
+	/**
+	 * Parse folder listing.
+	 * 
+	 * @param is Response input stream
+	 * @return Detached folder tree-node which holds the subfolders and documents of the listing
+	 * @throws IOException
+	 */
+	public static DocumentFolderTreeNode parse(final InputStream is) throws IOException {
+		return parse(is, new Pagination());
+	}
+
+	/**
+	 * Parse folder listing.
+	 * 
+	 * @param is Response input stream
+	 * @param pagination Filled with the pagination metadata, total is -1 if not present
+	 * @return Detached folder tree-node which holds the subfolders and documents of the listing
+	 * @throws IOException
+	 */
+	public static DocumentFolderTreeNode parse(final InputStream is, final Pagination pagination) throws IOException {
+		pagination.total = -1;
+
+		final DocumentFolderTreeNode listing = new DocumentFolderTreeNode();
+
+		try (final JsonParser parser = FACTORY.createParser(is)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				/* Empty listing. */
+				return listing;
+			}
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				parser.nextToken();
+
+				switch (field) {
+				case "subfolders":
+					for (final JsonToken end = getEndToken(parser); end != null && nextObject(parser, end);) {
+						listing.folders.add(parseFolder(parser));
+					}
+					break;
+
+				case "file_refs":
+					for (final JsonToken end = getEndToken(parser); end != null && nextObject(parser, end);) {
+						listing.documents.add(parseDocument(parser));
+					}
+					break;
+
+				case "pagination":
+					if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+						parsePagination(parser, pagination);
+					}
+					break;
+
+				default:
+					parser.skipChildren();
+				}
+			}
+		}
+
+		return listing;
+	}
+
+	/**
+	 * Parse folder object.
+	 * 
+	 * @param parser Parser positioned at START_OBJECT
+	 * @return Folder tree-node
+	 * @throws IOException
+	 */
+	private static DocumentFolderTreeNode parseFolder(final JsonParser parser) throws IOException {
+		final DocumentFolderTreeNode folder = new DocumentFolderTreeNode();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+
+			switch (field) {
+			case "id":
+				folder.folderId = parser.getValueAsString();
+				break;
+			case "user_id":
+				folder.userId = parser.getValueAsString();
+				break;
+			case "name":
+				folder.name = parser.getValueAsString();
+				break;
+			case "mkdate":
+				folder.mkDate = parser.getValueAsString();
+				break;
+			case "chdate":
+				folder.chDate = getLong(parser);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+
+		return folder;
+	}
+
+	/**
+	 * Parse document object.
+	 * 
+	 * @param parser Parser positioned at START_OBJECT
+	 * @return Document tree-node
+	 * @throws IOException
+	 */
+	private static DocumentTreeNode parseDocument(final JsonParser parser) throws IOException {
+		final DocumentTreeNode document = new DocumentTreeNode();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+
+			switch (field) {
+			case "id":
+				document.documentId = parser.getValueAsString();
+				break;
+			case "user_id":
+				document.userId = parser.getValueAsString();
+				break;
+			case "name":
+				document.name = parser.getValueAsString();
+				break;
+			case "description":
+				document.description = parser.getValueAsString();
+				break;
+			case "mkdate":
+				document.mkDate = getLong(parser);
+				break;
+			case "chdate":
+				document.chDate = getLong(parser);
+				break;
+			case "size":
+				document.fileSize = getLong(parser);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+
+		return document;
+	}
+
+	/**
+	 * Parse pagination object.
+	 * 
+	 * @param parser Parser positioned at START_OBJECT
+	 * @param pagination Pagination metadata
+	 * @throws IOException
+	 */
+	private static void parsePagination(final JsonParser parser, final Pagination pagination) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+
+			switch (field) {
+			case "total":
+				pagination.total = parser.getValueAsLong(-1);
+				break;
+			case "offset":
+				pagination.offset = parser.getValueAsLong();
+				break;
+			case "limit":
+				pagination.limit = parser.getValueAsLong();
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Get end token of the current container.
+	 * 
+	 * @param parser
+	 * @return END_ARRAY, END_OBJECT (object map) or null if the value is not a container
+	 */
+	private static JsonToken getEndToken(final JsonParser parser) {
+		final JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.START_ARRAY) {
+			return JsonToken.END_ARRAY;
+		}
+		if (token == JsonToken.START_OBJECT) {
+			return JsonToken.END_OBJECT;
+		}
+		return null;
+	}
+
+	/**
+	 * Advance to the next object element of the current container.
+	 * 
+	 * @param parser
+	 * @param end End token of the container
+	 * @return True, if the parser is positioned at the START_OBJECT of the next element
+	 * @throws IOException
+	 */
+	private static boolean nextObject(final JsonParser parser, final JsonToken end) throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) != end) {
+			if (token == null) {
+				throw new JsonParseException(parser, "Unexpected end of folder listing");
+			}
+
+			if (token == JsonToken.START_OBJECT) {
+				return true;
+			}
+
+			/* Skip keys of object maps and non-object elements. */
+			parser.skipChildren();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get numeric value, numbers sent as strings are converted.
+	 * 
+	 * @param parser
+	 * @return Long value or null
+	 * @throws IOException
+	 */
+	private static Long getLong(final JsonParser parser) throws IOException {
+		final JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL || token.isStructStart()) {
+			parser.skipChildren();
+			return null;
+		}
+
+		return parser.getValueAsLong();
+	}
+}
@@ -0,0 +1,118 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+
+/**
+ * Http transport for signed oauth requests.
+ * 
+ * Scribe is only used to sign the request, the transport sends it.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public interface HttpTransport {
+
+	/**
+	 * Http response.
+	 * 
+	 * The body stream is released when it is closed: a small remaining body is drained,
+	 * so the connection can be reused, otherwise the connection is aborted.
+	 */
+	abstract class Response implements Closeable {
+
+		/**
+		 * Response body stream.
+		 */
+		private InputStream stream;
+
+		/**
+		 * Get response status code.
+		 * 
+		 * @return Response HTTP status code
+		 */
+		public abstract int getCode();
+
+		/**
+		 * Get response headers.
+		 * 
+		 * @return Response header map
+		 */
+		public abstract Map<String, String> getHeaders();
+
+		/**
+		 * Open response body stream of the underlying connection.
+		 * 
+		 * @return Input stream or null
+		 */
+		protected abstract InputStream openStream();
+
+		/**
+		 * Get response body stream.
+		 * 
+		 * @return Response input stream or null
+		 */
+		public synchronized InputStream getStream() {
+			if (stream == null) {
+				final InputStream is = openStream();
+				if (is != null) {
+					stream = new ResponseStream(is);
+				}
+			}
+
+			return stream;
+		}
+
+		/**
+		 * Drain or abort the response body.
+		 * Safe to call more than once.
+		 * 
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException {
+			final InputStream is = getStream();
+			if (is != null) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Send signed request without blocking.
+	 * 
+	 * @param request Signed oauth request
+	 * @return Future which completes with the response headers, connection errors complete with OAuthConnectionException
+	 */
+	CompletableFuture<Response> sendAsync(OAuthRequest request);
+
+	/**
+	 * Send signed request.
+	 * 
+	 * @param request Signed oauth request
+	 * @return Response
+	 * @throws OAuthConnectionException Connection failed or timed out
+	 */
+	default Response send(final OAuthRequest request) {
+		try {
+			return sendAsync(request).join();
+
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new OAuthConnectionException(e);
+
+		} catch (CancellationException e) {
+			throw new OAuthConnectionException(e);
+		}
+	}
+}
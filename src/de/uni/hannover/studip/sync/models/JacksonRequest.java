@@ -1,10 +1,21 @@
 package de.uni.hannover.studip.sync.models;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
-import org.scribe.model.Response;
+import org.scribe.exceptions.OAuthConnectionException;
 import org.scribe.model.Verb;
 
 import com.fasterxml.jackson.annotation.JsonRootName;
@@ -13,6 +24,8 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
+import de.uni.hannover.studip.sync.datamodel.ResponseCacheEntry;
+
 /**
  * Jackson request.
  * 
@@ -20,9 +33,18 @@ import com.fasterxml.jackson.databind.ObjectReader;
  * @notice Thread safe (immutable object)
  * @param <T> Response data model.
  */
-public class JacksonRequest<T> {
+public class JacksonRequest<T> implements AutoCloseable {
 
 	private static final OAuth OAUTH = OAuth.getInstance();
+	private static final ResponseCache CACHE = ResponseCache.getInstance();
+	private static final RequestLimiter LIMITER = RequestLimiter.getInstance();
+	private static final ConnectionStats STATS = ConnectionStats.getInstance();
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+	/**
+	 * Object readers by datamodel class (readers are immutable and thread safe).
+	 */
+	private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
 	private static final ObjectMapper MAPPER = Config.getMapper();
 
 	/**
@@ -41,24 +63,237 @@ public class JacksonRequest<T> {
 	private final Class<T> datamodel;
 
 	/**
-	 * OAuth response.
+	 * Http response, null if the response is buffered (cacheable requests).
 	 */
-	private final Response response;
+	private final HttpTransport.Response response;
+
+	/**
+	 * Response headers.
+	 */
+	private final Map<String, String> headers;
+
+	/**
+	 * Response status code (304 Not Modified is mapped to 200 OK).
+	 */
+	private final int code;
+
+	/**
+	 * Response body (decoded), if the request is cacheable.
+	 */
+	private final byte[] body;
+
+	/**
+	 * Number of response body bytes transferred (compressed), -1 if the body is streamed.
+	 */
+	private final long transferSize;
 
 	/**
 	 * Send jackson request.
 	 * 
+	 * GET requests are cacheable by default.
+	 * 
+	 * @param method Request method
+	 * @param url Request url
+	 * @param datamodel Datamodel class
+	 * @throws IOException
+	 */
+	public JacksonRequest(final Verb method, final String url, final Class<T> datamodel) throws IOException {
+		this(method, url, datamodel, method == Verb.GET);
+	}
+
+	/**
+	 * Send jackson request.
+	 * 
+	 * @param method Request method
+	 * @param url Request url
+	 * @param datamodel Datamodel class
+	 * @param cacheable If true the response is stored in the response cache and revalidated with conditional requests,
+	 * the json body is transferred compressed. Binary downloads must not be cacheable.
+	 * @throws IOException
+	 */
+	public JacksonRequest(final Verb method, final String url, final Class<T> datamodel, final boolean cacheable) throws IOException {
+		this(method, url, datamodel, cacheable, Collections.emptyMap());
+	}
+
+	/**
+	 * Send jackson request with additional request headers.
+	 * 
 	 * @param method Request method
 	 * @param url Request url
 	 * @param datamodel Datamodel class
+	 * @param cacheable If true the response is stored in the response cache and revalidated with conditional requests,
+	 * the json body is transferred compressed. Binary downloads must not be cacheable.
+	 * @param requestHeaders Additional request headers (e.g. Range)
+	 * @throws IOException
 	 */
-	public JacksonRequest(final Verb method, final String url, final Class<T> datamodel) {
+	public JacksonRequest(final Verb method, final String url, final Class<T> datamodel, final boolean cacheable, final Map<String, String> requestHeaders) throws IOException {
 		this.method = method;
 		this.url = url;
 		this.datamodel = datamodel;
 
-		/* Send rest api request using oauth service. */
-		this.response = OAUTH.sendRequest(method, url);
+		if (!cacheable) {
+			this.response = send(method, url, requestHeaders);
+			this.headers = response.getHeaders();
+			this.code = response.getCode();
+			this.body = null;
+			this.transferSize = -1;
+			return;
+		}
+
+		/* Send conditional request if the url is cached. */
+		final ResponseCacheEntry entry = CACHE.get(url);
+		final Map<String, String> headers = new HashMap<>(requestHeaders);
+		headers.put("Accept-Encoding", "gzip, deflate");
+		if (entry != null) {
+			if (entry.eTag != null) {
+				headers.put("If-None-Match", entry.eTag);
+			}
+			if (entry.lastModified != null) {
+				headers.put("If-Modified-Since", entry.lastModified);
+			}
+		}
+
+		/* The response is buffered and released, so the request can be shared (immutable). */
+		final HttpTransport.Response response = send(method, url, headers);
+		this.response = null;
+		this.headers = Collections.unmodifiableMap(new HashMap<>(response.getHeaders()));
+
+		if (entry != null && response.getCode() == 304) {
+			/* Not modified, use cached response body. */
+			response.close();
+
+			CACHE.hit(entry);
+			this.code = 200;
+			this.body = entry.body;
+			this.transferSize = 0;
+
+		} else if (response.getCode() == 200) {
+			final byte[] data;
+			try (final InputStream is = response.getStream()) {
+				data = is.readAllBytes();
+
+			} finally {
+				response.close();
+			}
+
+			this.body = decode(data, getHeader("Content-Encoding"));
+			this.transferSize = data.length;
+			STATS.onTransfer(transferSize, body.length);
+
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine(url + ": " + transferSize + " bytes transferred, " + body.length + " bytes decoded");
+			}
+
+			CACHE.miss();
+			this.code = 200;
+
+			final String eTag = getHeader("ETag");
+			final String lastModified = getHeader("Last-Modified");
+			if (eTag != null || lastModified != null) {
+				CACHE.put(new ResponseCacheEntry(url, eTag, lastModified, body));
+			}
+
+		} else {
+			/* Error response bodies are never read, release the connection. */
+			response.close();
+
+			this.code = response.getCode();
+			this.body = null;
+			this.transferSize = 0;
+		}
+	}
+
+	/**
+	 * Decode compressed response body.
+	 * 
+	 * @param data Response body
+	 * @param encoding Content-Encoding header or null
+	 * @return Decoded response body
+	 * @throws IOException
+	 */
+	private static byte[] decode(final byte[] data, final String encoding) throws IOException {
+		if (encoding == null || encoding.trim().isEmpty() || "identity".equalsIgnoreCase(encoding.trim())) {
+			return data;
+		}
+
+		switch (encoding.trim().toLowerCase(Locale.ENGLISH)) {
+		case "gzip":
+		case "x-gzip":
+			try (final InputStream is = new GZIPInputStream(new ByteArrayInputStream(data))) {
+				return is.readAllBytes();
+			}
+
+		case "deflate":
+			try (final InputStream is = new InflaterInputStream(new ByteArrayInputStream(data))) {
+				return is.readAllBytes();
+
+			} catch (ZipException e) {
+				/* Some servers send raw deflate data without zlib header. */
+				try (final InputStream is = new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(true))) {
+					return is.readAllBytes();
+				}
+			}
+
+		default:
+			throw new IOException("Unsupported content encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * Copy a buffered request.
+	 * 
+	 * Callers which share the result of one request get their own copy,
+	 * only the immutable response (code, headers, body) is shared.
+	 * 
+	 * @param request Buffered (cacheable) request
+	 */
+	public JacksonRequest(final JacksonRequest<T> request) {
+		if (request.response != null) {
+			throw new IllegalArgumentException("Request is not buffered!");
+		}
+
+		this.method = request.method;
+		this.url = request.url;
+		this.datamodel = request.datamodel;
+		this.response = null;
+		this.headers = request.headers;
+		this.code = request.code;
+		this.body = request.body;
+		this.transferSize = request.transferSize;
+	}
+
+	/**
+	 * Send rest api request using oauth service.
+	 * 
+	 * The response latency and errors are reported to the request limiter.
+	 * 
+	 * @param method Request method
+	 * @param url Request url
+	 * @param headers Request headers
+	 * @return Http response
+	 */
+	private static HttpTransport.Response send(final Verb method, final String url, final Map<String, String> headers) {
+		final long startTime = System.currentTimeMillis();
+		STATS.onRequest();
+
+		try {
+			final HttpTransport.Response response = OAUTH.sendRequest(method, url, headers);
+			final int code = response.getCode();
+
+			if (code == 429 || code == 502 || code == 503 || code == 504) {
+				/* Server overloaded. */
+				LIMITER.onError();
+			} else {
+				LIMITER.onSuccess(System.currentTimeMillis() - startTime);
+			}
+
+			return response;
+
+		} catch (OAuthConnectionException e) {
+			/* Connection failed or timed out. */
+			LIMITER.onError();
+			throw e;
+		}
 	}
 
 	/**
@@ -69,14 +304,9 @@ public class JacksonRequest<T> {
 	 * @throws IOException
 	 */
 	public T parseResponse() throws IOException {
-		ObjectReader reader = MAPPER.readerFor(datamodel)
-				.without(Feature.AUTO_CLOSE_SOURCE)
-				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
-		if (datamodel.isAnnotationPresent(JsonRootName.class)) {
-			reader = reader.with(DeserializationFeature.UNWRAP_ROOT_VALUE);
-		}
+		final ObjectReader reader = READERS.computeIfAbsent(datamodel, JacksonRequest::createReader);
 
-		try (final InputStream is = response.getStream()) {
+		try (final InputStream is = getStream()) {
 			final T result = reader.readValue(is);
 
 			/*
@@ -90,6 +320,45 @@ public class JacksonRequest<T> {
 		}
 	}
 
+	/**
+	 * Create pre-configured reader for the datamodel class.
+	 * 
+	 * @param datamodel Datamodel class
+	 * @return Object reader
+	 */
+	private static ObjectReader createReader(final Class<?> datamodel) {
+		ObjectReader reader = MAPPER.readerFor(datamodel)
+				.without(Feature.AUTO_CLOSE_SOURCE)
+				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+		if (datamodel.isAnnotationPresent(JsonRootName.class)) {
+			reader = reader.with(DeserializationFeature.UNWRAP_ROOT_VALUE);
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Skip the response body.
+	 * This is needed for proper http connection reuse (keep alive).
+	 * 
+	 * @throws IOException
+	 */
+	public void discardResponse() throws IOException {
+		close();
+	}
+
+	/**
+	 * Release the connection, the response body is drained or aborted.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (response != null) {
+			response.close();
+		}
+	}
+
 	/**
 	 * Get request method.
 	 * 
@@ -114,7 +383,7 @@ public class JacksonRequest<T> {
 	 * @return Response HTTP status code
 	 */
 	public int getCode() {
-		return response.getCode();
+		return code;
 	}
 
 	/**
@@ -123,7 +392,32 @@ public class JacksonRequest<T> {
 	 * @return Response header map
 	 */
 	public Map<String, String> getHeaders() {
-		return response.getHeaders();
+		return headers;
+	}
+
+	/**
+	 * Get response header (case insensitive).
+	 * 
+	 * @param name Header name
+	 * @return Header value or null
+	 */
+	public String getHeader(final String name) {
+		for (final Map.Entry<String, String> header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey())) {
+				return header.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get number of response body bytes transferred.
+	 * 
+	 * @return Compressed body size, 0 if not modified or -1 if the body is streamed
+	 */
+	public long getTransferSize() {
+		return transferSize;
 	}
 
 	/**
@@ -132,6 +426,11 @@ public class JacksonRequest<T> {
 	 * @return Response input stream
 	 */
 	public InputStream getStream() {
-		return response.getStream();
+		if (body != null) {
+			return new ByteArrayInputStream(body);
+		}
+
+		/* Error responses of buffered requests have no body. */
+		return response != null ? response.getStream() : InputStream.nullInputStream();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,309 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Request;
+
+/**
+ * Non-blocking transport using java.net.http.HttpClient.
+ * 
+ * Requests are multiplexed over a few HTTP/2 connections (if the server supports it),
+ * which saves a TLS handshake for most requests.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class JdkHttpTransport implements HttpTransport {
+
+	private static final JdkHttpTransport INSTANCE = new JdkHttpTransport();
+
+	/**
+	 * Response timeout.
+	 */
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Read timeout of the response body in ms.
+	 * The http client has no read timeout, a stalled stream would block the job forever.
+	 */
+	private static final long READ_TIMEOUT = TIMEOUT.toMillis();
+
+	/**
+	 * Interval of the read timeout check in ms, a stalled stream is aborted after at most the timeout plus this interval.
+	 */
+	private static final long CHECK_INTERVAL = 5000;
+
+	/**
+	 * Watchdog which aborts stalled response bodies.
+	 */
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+		final Thread thread = new Thread(runnable, "Read timeout");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Http client (connection pool).
+	 */
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.connectTimeout(Duration.ofSeconds(10))
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.sslContext(ConnectionStats.getInstance().getSSLContext())
+			.build();
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return JdkHttpTransport instance
+	 */
+	public static JdkHttpTransport getInstance() {
+		return INSTANCE;
+	}
+
+	private JdkHttpTransport() {
+		// Use getInstance().
+	}
+
+	@Override
+	public CompletableFuture<Response> sendAsync(final OAuthRequest request) {
+		final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getCompleteUrl()))
+				.timeout(TIMEOUT)
+				.method(request.getVerb().name(), getBody(request));
+
+		for (final Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			builder.header(header.getKey(), header.getValue());
+		}
+
+		return client.sendAsync(builder.build(), BodyHandlers.ofInputStream())
+				.handle((response, e) -> {
+					if (e != null) {
+						/* Connection failed or timed out. */
+						final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+						throw new OAuthConnectionException(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+					}
+
+					return toResponse(response);
+				});
+	}
+
+	/**
+	 * Get request body publisher.
+	 * 
+	 * @param request
+	 * @return Body publisher
+	 */
+	private static BodyPublisher getBody(final OAuthRequest request) {
+		final String body = request.getBodyContents();
+		if (body.isEmpty()) {
+			return BodyPublishers.noBody();
+		}
+
+		if (!request.getHeaders().containsKey("Content-Type")) {
+			request.addHeader("Content-Type", Request.DEFAULT_CONTENT_TYPE);
+		}
+
+		return BodyPublishers.ofString(body);
+	}
+
+	/**
+	 * Wrap http client response.
+	 * 
+	 * @param response
+	 * @return Response
+	 */
+	private static Response toResponse(final HttpResponse<InputStream> response) {
+		final Map<String, String> headers = new HashMap<>();
+		final HttpHeaders httpHeaders = response.headers();
+		for (final Map.Entry<String, List<String>> header : httpHeaders.map().entrySet()) {
+			if (!header.getValue().isEmpty()) {
+				headers.put(header.getKey(), header.getValue().get(0));
+			}
+		}
+
+		final Map<String, String> unmodifiableHeaders = Collections.unmodifiableMap(headers);
+
+		return new Response() {
+			@Override
+			public int getCode() {
+				return response.statusCode();
+			}
+
+			@Override
+			public Map<String, String> getHeaders() {
+				return unmodifiableHeaders;
+			}
+
+			@Override
+			protected InputStream openStream() {
+				return new TimeoutInputStream(response.body());
+			}
+		};
+	}
+
+	/**
+	 * Response body stream with read timeout.
+	 * 
+	 * One watchdog check per stream runs periodically and closes the stream if a read
+	 * made no progress for longer than the timeout, which aborts the response and unblocks the reading thread.
+	 * The time between two reads (e.g. bandwidth limit) does not count.
+	 */
+	private static final class TimeoutInputStream extends FilterInputStream {
+
+		/**
+		 * Start or end time of the last read in ms.
+		 */
+		private volatile long lastProgress = System.currentTimeMillis();
+
+		/**
+		 * True while a read is blocking.
+		 */
+		private volatile boolean reading;
+
+		/**
+		 * True if the watchdog closed the stream.
+		 */
+		private volatile boolean timedOut;
+
+		/**
+		 * Periodic watchdog check of this stream.
+		 */
+		private final ScheduledFuture<?> watchdog;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param in Response body stream
+		 */
+		TimeoutInputStream(final InputStream in) {
+			super(in);
+			watchdog = WATCHDOG.scheduleWithFixedDelay(this::checkProgress, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int read() throws IOException {
+			startRead();
+			try {
+				return endRead(super.read());
+
+			} catch (IOException e) {
+				throw failRead(e);
+			}
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			startRead();
+			try {
+				return endRead(super.read(b, off, len));
+
+			} catch (IOException e) {
+				throw failRead(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			watchdog.cancel(false);
+			super.close();
+		}
+
+		/**
+		 * Abort this stream if the current read made no progress for longer than the timeout.
+		 */
+		private void checkProgress() {
+			if (!reading || System.currentTimeMillis() - lastProgress < READ_TIMEOUT) {
+				return;
+			}
+
+			timedOut = true;
+			watchdog.cancel(false);
+			try {
+				in.close();
+
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+
+		/**
+		 * Start of a read.
+		 * 
+		 * @throws SocketTimeoutException If the stream was aborted before
+		 */
+		private void startRead() throws SocketTimeoutException {
+			if (timedOut) {
+				throw timeoutException();
+			}
+
+			lastProgress = System.currentTimeMillis();
+			reading = true;
+		}
+
+		/**
+		 * End of a read. An aborted stream might signal the end of stream, which must not be taken for a complete body.
+		 * 
+		 * @param result Read result
+		 * @return Read result
+		 * @throws SocketTimeoutException If the stream was aborted
+		 */
+		private int endRead(final int result) throws SocketTimeoutException {
+			reading = false;
+			lastProgress = System.currentTimeMillis();
+
+			if (timedOut) {
+				throw timeoutException();
+			}
+
+			if (result == -1) {
+				/* Complete, nothing left to watch. */
+				watchdog.cancel(false);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Failed read.
+		 * 
+		 * @param e Read exception
+		 * @return Exception to throw
+		 */
+		private IOException failRead(final IOException e) {
+			reading = false;
+			watchdog.cancel(false);
+			return timedOut ? timeoutException() : e;
+		}
+
+		private static SocketTimeoutException timeoutException() {
+			return new SocketTimeoutException("Read timed out");
+		}
+	}
+}
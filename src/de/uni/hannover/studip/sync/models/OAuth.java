@@ -1,12 +1,13 @@
 package de.uni.hannover.studip.sync.models;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.scribe.builder.ServiceBuilder;
 import org.scribe.model.OAuthRequest;
-import org.scribe.model.Response;
 import org.scribe.model.Token;
 import org.scribe.model.Verb;
 import org.scribe.model.Verifier;
@@ -143,13 +144,63 @@ public final class OAuth {
 	 * 
 	 * @param verb Request method
 	 * @param url Request url
-	 * @return OAuth response
+	 * @return Response
 	 */
-	public Response sendRequest(final Verb method, final String url) {
+	public HttpTransport.Response sendRequest(final Verb method, final String url) {
+		return sendRequest(method, url, Collections.emptyMap());
+	}
+
+	/**
+	 * Step 5: Sign and send request with additional headers.
+	 * 
+	 * @param verb Request method
+	 * @param url Request url
+	 * @param headers Request headers
+	 * @return Response
+	 */
+	public HttpTransport.Response sendRequest(final Verb method, final String url, final Map<String, String> headers) {
+		return getTransport(headers).send(signRequest(method, url, headers));
+	}
+
+	/**
+	 * Step 5: Sign and send request without blocking.
+	 * 
+	 * @param verb Request method
+	 * @param url Request url
+	 * @param headers Request headers
+	 * @return Future response
+	 */
+	public CompletableFuture<HttpTransport.Response> sendRequestAsync(final Verb method, final String url, final Map<String, String> headers) {
+		return getTransport(headers).sendAsync(signRequest(method, url, headers));
+	}
+
+	/**
+	 * Get the configured http transport.
+	 * 
+	 * Range requests always use a http/1.1 connection of their own,
+	 * http/2 would multiplex the segments of a download over a single connection.
+	 * 
+	 * @param headers Request headers
+	 * @return Http transport
+	 */
+	private static HttpTransport getTransport(final Map<String, String> headers) {
+		return CONFIG.isHttp2() && !headers.containsKey("Range") ? JdkHttpTransport.getInstance() : ScribeTransport.getInstance();
+	}
+
+	/**
+	 * Sign request with the access token.
+	 * 
+	 * @param verb Request method
+	 * @param url Request url
+	 * @param headers Request headers
+	 * @return Signed request
+	 */
+	private OAuthRequest signRequest(final Verb method, final String url, final Map<String, String> headers) {
 		final OAuthRequest request = new OAuthRequest(method, url);
-		request.setConnectTimeout(10, TimeUnit.SECONDS);
-		request.setReadTimeout(30, TimeUnit.SECONDS);
-		request.setConnectionKeepAlive(true);
+
+		for (final Map.Entry<String, String> header : headers.entrySet()) {
+			request.addHeader(header.getKey(), header.getValue());
+		}
 
 		lock.readLock().lock();
 		try {
@@ -163,7 +214,7 @@ public final class OAuth {
 			lock.readLock().unlock();
 		}
 
-		return request.send();
+		return request;
 	}
 
 	/**
@@ -0,0 +1,263 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limiter for api requests and downloads.
+ * 
+ * The limit of concurrent requests is adjusted with AIMD (additive increase,
+ * multiplicative decrease): It grows by one per limit successful requests
+ * and shrinks if the server responds with errors or the smoothed latency
+ * rises significantly above the observed minimum (queueing on the server).
+ * A latency backoff happens at most once per window of limit requests,
+ * so the requests of one round trip count as a single congestion signal.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class RequestLimiter {
+
+	private static final Config CONFIG = Config.getInstance();
+	private static final RequestLimiter INSTANCE = new RequestLimiter();
+
+	/**
+	 * Initial limit of concurrent requests.
+	 */
+	private static final double INITIAL_LIMIT = 4;
+
+	/**
+	 * Decrease factor on errors (timeouts, 429, 5xx).
+	 */
+	private static final double ERROR_BACKOFF = 0.5;
+
+	/**
+	 * Decrease factor on high latency.
+	 */
+	private static final double LATENCY_BACKOFF = 0.9;
+
+	/**
+	 * Latency is considered high if it exceeds the minimum latency by this factor.
+	 */
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * Number of samples after which the minimum latency is measured again.
+	 */
+	private static final int MIN_LATENCY_WINDOW = 256;
+
+	/**
+	 * Reentrant lock.
+	 * Does not pin virtual threads while waiting (unlike Object.wait).
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signaled if a permit might be available.
+	 */
+	private final Condition permitAvailable = lock.newCondition();
+
+	/**
+	 * Current limit.
+	 */
+	private double limit;
+
+	/**
+	 * Number of jobs currently in flight.
+	 */
+	private int inFlight;
+
+	/**
+	 * Minimum observed latency in ms.
+	 */
+	private long minLatency = Long.MAX_VALUE;
+
+	/**
+	 * Smoothed latency in ms.
+	 */
+	private double avgLatency;
+
+	/**
+	 * Number of latency samples in the current window.
+	 */
+	private int samples;
+
+	/**
+	 * Number of latency samples since the last backoff.
+	 */
+	private int samplesSinceBackoff;
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return RequestLimiter instance
+	 */
+	public static RequestLimiter getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	private RequestLimiter() {
+		limit = Math.min(INITIAL_LIMIT, CONFIG.getMaxConnections());
+	}
+
+	/**
+	 * Wait until the number of requests in flight is below the limit.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			while (inFlight >= getLimit()) {
+				try {
+					permitAvailable.await();
+
+				} catch (InterruptedException e) {
+					/* Hand a received signal over to the next waiting thread. */
+					if (inFlight < getLimit()) {
+						permitAvailable.signal();
+					}
+					throw e;
+				}
+			}
+
+			inFlight++;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Acquire a permit without waiting.
+	 * 
+	 * @return True if the number of requests in flight was below the limit
+	 */
+	public boolean tryAcquire() {
+		lock.lock();
+		try {
+			if (inFlight >= getLimit()) {
+				return false;
+			}
+
+			inFlight++;
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Request done.
+	 */
+	public void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			permitAvailable.signal();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Successful request.
+	 * 
+	 * @param latency Time until the response header was received in ms
+	 */
+	public void onSuccess(final long latency) {
+		lock.lock();
+		try {
+			final int previousLimit = getLimit();
+
+			if (samples++ >= MIN_LATENCY_WINDOW) {
+				/* Start a new window, the minimum latency might have changed. */
+				minLatency = (long) avgLatency;
+				samples = 0;
+			}
+
+			minLatency = Math.min(minLatency, latency);
+			avgLatency = avgLatency == 0 ? latency : 0.9 * avgLatency + 0.1 * latency;
+
+			samplesSinceBackoff++;
+
+			if (avgLatency > LATENCY_TOLERANCE * minLatency) {
+				/* Server is queueing requests, back off at most once per window. */
+				if (samplesSinceBackoff >= limit) {
+					limit = Math.max(1, limit * LATENCY_BACKOFF);
+					samplesSinceBackoff = 0;
+				}
+			} else {
+				limit = Math.min(CONFIG.getMaxConnections(), limit + 1 / limit);
+			}
+
+			/* Wake up one waiting thread per added permit. */
+			for (int i = previousLimit; i < getLimit(); i++) {
+				permitAvailable.signal();
+			}
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Failed request (timeout or server overloaded).
+	 */
+	public void onError() {
+		lock.lock();
+		try {
+			limit = Math.max(1, limit * ERROR_BACKOFF);
+			samplesSinceBackoff = 0;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get current limit of concurrent requests.
+	 * 
+	 * @return
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) Math.min(CONFIG.getMaxConnections(), limit);
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get number of requests in flight.
+	 * 
+	 * @return
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "Concurrency limit: " + getLimit() + "/" + CONFIG.getMaxConnections() + ", avg latency: " + (long) avgLatency + "ms";
+
+		} finally {
+			lock.unlock();
+		}
+	}
+}
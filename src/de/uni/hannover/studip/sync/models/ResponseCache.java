@@ -0,0 +1,432 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.uni.hannover.studip.sync.datamodel.ResponseCacheEntry;
+
+/**
+ * Persistent http response cache.
+ * 
+ * Stores the response body together with its validators (ETag/Last-Modified),
+ * so that subsequent requests can be sent as conditional requests.
+ * Responses depend on the authorized user, every user has a cache directory of its own.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class ResponseCache {
+
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+	private static final ResponseCache INSTANCE = new ResponseCache();
+	private static final ObjectMapper MAPPER = Config.getMapper();
+	private static final Config CONFIG = Config.getInstance();
+
+	/**
+	 * Stud.IP user id, used as name of the user cache directory.
+	 */
+	private static final String USER_ID_REGEX = "^[a-f0-9]{32}$";
+
+	/**
+	 * Entries which were not used for this time in ms are evicted.
+	 */
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Maximum cache size in bytes, the least recently used entries are evicted first.
+	 */
+	private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Cache root directory or null if the cache is disabled.
+	 */
+	private final Path cacheDirectory;
+
+	/**
+	 * Maps user cache directory to its size in bytes (approximately, concurrent writes of the same entry are counted twice).
+	 */
+	private final Map<Path, AtomicLong> sizes = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of requests answered from cache (304 Not Modified).
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of requests with a full response body.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Number of response body bytes not transferred because of cache hits.
+	 */
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return ResponseCache instance
+	 */
+	public static ResponseCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	private ResponseCache() {
+		Path directory;
+		try {
+			directory = Config.openCacheDirectory();
+			removeSharedEntries(directory);
+
+		} catch (IOException e) {
+			/* The cache is best effort only, requests are sent without it. */
+			directory = null;
+
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Response cache disabled: " + e.getMessage());
+			}
+		}
+
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Remove the entries of older versions, which were shared by all users.
+	 * 
+	 * @param directory Cache root directory
+	 * @throws IOException
+	 */
+	private static void removeSharedEntries(final Path directory) throws IOException {
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+			for (final Path file : stream) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/**
+	 * Get cache directory of the authorized user.
+	 * 
+	 * The directory is created and cleaned up on first use.
+	 * 
+	 * @return User cache directory or null if the cache is disabled or no user is authorized
+	 */
+	private Path getUserDirectory() {
+		final String userId = CONFIG.getUserId();
+		if (cacheDirectory == null || userId == null || !userId.matches(USER_ID_REGEX)) {
+			return null;
+		}
+
+		final Path directory = cacheDirectory.resolve(userId);
+		if (!sizes.containsKey(directory)) {
+			synchronized (this) {
+				if (!sizes.containsKey(directory)) {
+					try {
+						Files.createDirectories(directory);
+						sizes.put(directory, new AtomicLong(evict(directory, true)));
+
+					} catch (IOException e) {
+						if (LOG.isLoggable(Level.WARNING)) {
+							LOG.warning("Response cache disabled: " + e.getMessage());
+						}
+						return null;
+					}
+				}
+			}
+		}
+
+		return directory;
+	}
+
+	/**
+	 * Remove expired entries and the least recently used entries above the size limit.
+	 * 
+	 * @param directory User cache directory
+	 * @param removeTempFiles If true leftover temp files of interrupted writes are removed as well
+	 * @return Cache size in bytes after the eviction
+	 * @throws IOException
+	 */
+	private static long evict(final Path directory, final boolean removeTempFiles) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		final Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+		final long now = System.currentTimeMillis();
+		long size = 0;
+
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (final Path file : stream) {
+				if (file.getFileName().toString().endsWith(".tmp")) {
+					if (removeTempFiles) {
+						Files.deleteIfExists(file);
+					}
+					continue;
+				}
+
+				final BasicFileAttributes attrs;
+				try {
+					attrs = Files.readAttributes(file, BasicFileAttributes.class);
+
+				} catch (NoSuchFileException e) {
+					/* Replaced by a concurrent put. */
+					continue;
+				}
+
+				if (now - attrs.lastModifiedTime().toMillis() > MAX_AGE) {
+					Files.deleteIfExists(file);
+					continue;
+				}
+
+				files.add(file);
+				attributes.put(file, attrs);
+				size += attrs.size();
+			}
+		}
+
+		if (size <= MAX_SIZE) {
+			return size;
+		}
+
+		/* Oldest first, the modified time is updated on every cache hit. */
+		files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+		for (final Path file : files) {
+			if (size <= MAX_SIZE) {
+				break;
+			}
+
+			Files.deleteIfExists(file);
+			size -= attributes.get(file).size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Map request url to cache file.
+	 * 
+	 * @param directory User cache directory
+	 * @param url Request url
+	 * @return Path to cache file
+	 */
+	private static Path toFile(final Path directory, final String url) {
+		return directory.resolve(UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8)) + ".json");
+	}
+
+	/**
+	 * Get cache entry.
+	 * 
+	 * @param url Request url
+	 * @return Cache entry or null if the url is not cached
+	 */
+	public ResponseCacheEntry get(final String url) {
+		final Path directory = getUserDirectory();
+		if (directory == null) {
+			return null;
+		}
+
+		try (final InputStream is = Files.newInputStream(toFile(directory, url))) {
+			final ResponseCacheEntry entry = MAPPER.readerFor(ResponseCacheEntry.class).readValue(is);
+
+			/* Guard against hash collisions. */
+			return url.equals(entry.url) && entry.body != null ? entry : null;
+
+		} catch (NoSuchFileException e) {
+			return null;
+
+		} catch (JsonParseException | JsonMappingException e) {
+			/* Invalid cache file. */
+			remove(url);
+			return null;
+
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Store cache entry.
+	 * 
+	 * The entry is written to a temp file and moved over the cache file,
+	 * so readers and concurrent writers never see a partial entry.
+	 * The least recently used entries are evicted once the cache is above its size limit.
+	 * 
+	 * @param entry Cache entry
+	 */
+	public void put(final ResponseCacheEntry entry) {
+		final Path directory = getUserDirectory();
+		if (directory == null) {
+			return;
+		}
+
+		final Path file = toFile(directory, entry.url);
+		Path tempFile = null;
+		try {
+			tempFile = Files.createTempFile(directory, null, ".tmp");
+			try (final OutputStream os = Files.newOutputStream(tempFile)) {
+				MAPPER.writerFor(ResponseCacheEntry.class).writeValue(os, entry);
+			}
+
+			final long newSize = Files.size(tempFile);
+			long oldSize;
+			try {
+				oldSize = Files.size(file);
+
+			} catch (NoSuchFileException e) {
+				oldSize = 0;
+			}
+
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			if (sizes.get(directory).addAndGet(newSize - oldSize) > MAX_SIZE) {
+				evictUserDirectory(directory);
+			}
+
+		} catch (IOException e) {
+			/* The cache is best effort only. */
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not write cache entry: " + entry.url);
+			}
+
+			if (tempFile != null) {
+				try {
+					Files.deleteIfExists(tempFile);
+
+				} catch (IOException e1) {
+					// Ignore.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evict entries of a user cache directory which is above the size limit.
+	 * 
+	 * @param directory User cache directory
+	 */
+	private synchronized void evictUserDirectory(final Path directory) {
+		final AtomicLong size = sizes.get(directory);
+		if (size.get() <= MAX_SIZE) {
+			/* Already evicted by a concurrent put. */
+			return;
+		}
+
+		try {
+			size.set(evict(directory, false));
+
+		} catch (IOException e) {
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Could not evict cache entries: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Remove cache entry.
+	 * 
+	 * @param url Request url
+	 */
+	public void remove(final String url) {
+		final Path directory = getUserDirectory();
+		if (directory == null) {
+			return;
+		}
+
+		try {
+			Files.deleteIfExists(toFile(directory, url));
+
+		} catch (IOException e) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * Count cache hit.
+	 * 
+	 * @param entry Cache entry
+	 */
+	public void hit(final ResponseCacheEntry entry) {
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(entry.body.length);
+
+		final Path directory = getUserDirectory();
+		if (directory == null) {
+			return;
+		}
+
+		/* Mark entry as recently used for the eviction. */
+		try {
+			Files.setLastModifiedTime(toFile(directory, entry.url), FileTime.fromMillis(System.currentTimeMillis()));
+
+		} catch (IOException e) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * Count cache miss.
+	 */
+	public void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Get number of cache hits.
+	 * 
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of cache misses.
+	 * 
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get number of response body bytes served from cache.
+	 * 
+	 * @return
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Cache hits: " + getHits() + ", misses: " + getMisses() + ", bytes saved: " + getBytesSaved();
+	}
+}
@@ -0,0 +1,90 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response body stream which releases the connection on close.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+final class ResponseStream extends FilterInputStream {
+
+	private static final ConnectionStats STATS = ConnectionStats.getInstance();
+
+	/**
+	 * Maximum number of remaining bytes which are drained on close,
+	 * a larger body is aborted (closing the connection is cheaper).
+	 */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/**
+	 * True if the end of stream was reached.
+	 */
+	private volatile boolean eof;
+
+	/**
+	 * True if the stream is closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param in Response body stream of the connection
+	 */
+	ResponseStream(final InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b == -1) {
+			eof = true;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int count = super.read(b, off, len);
+		if (count == -1) {
+			eof = true;
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			/* Drain the remaining body, so the connection can be reused. */
+			final byte[] buffer = new byte[8192];
+			int drained = 0;
+			while (!eof && drained <= MAX_DRAIN) {
+				final int count = read(buffer, 0, buffer.length);
+				if (count > 0) {
+					drained += count;
+				}
+			}
+
+		} catch (IOException e) {
+			/* Connection broken, it can not be reused. */
+		}
+
+		if (eof) {
+			STATS.onDrain();
+		} else {
+			STATS.onAbort();
+		}
+
+		super.close();
+	}
+}
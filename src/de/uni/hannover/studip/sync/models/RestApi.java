@@ -1,12 +1,39 @@
 package de.uni.hannover.studip.sync.models;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.scribe.exceptions.OAuthConnectionException;
 import org.scribe.model.Verb;
 
 import de.elanev.studip.android.app.backend.datamodel.*;
+import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.datamodel.Pagination;
+import de.uni.hannover.studip.sync.datamodel.PartFileEntry;
 import de.uni.hannover.studip.sync.exceptions.*;
+import de.uni.hannover.studip.sync.models.BandwidthLimiter.Priority;
 import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
 import de.uni.hannover.studip.sync.utils.FileDownload;
 
@@ -16,19 +43,371 @@ import de.uni.hannover.studip.sync.utils.FileDownload;
  * @author Lennart Glauer
  * 
  * @see http://studip.github.io/studip-rest.ip/
- *
+ * 
  */
 public final class RestApi {
 
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
 	/**
 	 * Regex for studip id (MD5) validation.
 	 */
 	private static final String STUDIP_ID_REGEX = "^[a-f0-9]{32}$";
 
+	/**
+	 * Maximum number of retries for timeouts and overloaded server responses.
+	 */
+	private static final int MAX_RETRIES = 5;
+
+	/**
+	 * Initial retry delay in ms, doubled for every retry.
+	 */
+	private static final long BASE_RETRY_DELAY = 500L;
+
+	/**
+	 * Maximum retry delay in ms.
+	 */
+	private static final long MAX_RETRY_DELAY = 60 * 1000L;
+
+	/**
+	 * Page size of paginated collections.
+	 */
+	private static final int PAGE_SIZE = 1000;
+
+	/**
+	 * Executor for parallel page requests.
+	 * The calling job waits for its pages, so they must not run on the job pool.
+	 */
+	private static final ExecutorService PAGE_POOL = Executors.newFixedThreadPool(Config.getInstance().getMaxConnections(), runnable -> {
+		final Thread thread = new Thread(runnable, "Page request");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final SingleFlight SINGLE_FLIGHT = SingleFlight.getInstance();
+	private static final RequestLimiter LIMITER = RequestLimiter.getInstance();
+
+	/**
+	 * Parser of a page response.
+	 */
+	@FunctionalInterface
+	private interface PageParser<T> {
+		T parse(JacksonRequest<T> request) throws IOException;
+	}
+
+	/**
+	 * Filter of a page which removes the entries with an already seen id.
+	 * The ids of the remaining entries are added to the seen ids, the number of remaining entries is returned.
+	 */
+	@FunctionalInterface
+	private interface PageFilter<T> {
+		int removeSeen(T page, Set<String> ids);
+	}
+
 	private RestApi() {
 		// Utility class.
 	}
 
+	/**
+	 * Send GET request.
+	 * 
+	 * Concurrent identical cacheable requests share one network call.
+	 * The response is buffered, so every caller gets its own request and parses its own datamodel object.
+	 * 
+	 * @param url Request url
+	 * @param datamodel Datamodel class
+	 * @param cacheable If true the response is cached
+	 * @return Jackson request
+	 * @throws IOException
+	 */
+	private static <T> JacksonRequest<T> send(final String url, final Class<T> datamodel, final boolean cacheable) throws IOException {
+		if (!cacheable) {
+			return sendWithRetry(url, datamodel, false, Collections.emptyMap());
+		}
+
+		/* The shared request is buffered, every caller gets its own copy. Only requests for the same datamodel are shared. */
+		return new JacksonRequest<>(SINGLE_FLIGHT.execute(url + "#" + datamodel.getName(), () -> sendWithRetry(url, datamodel, true, Collections.emptyMap())));
+	}
+
+	/**
+	 * Send GET request with retry policy.
+	 * 
+	 * Timeouts and overloaded server responses (429, 502, 503, 504) are retried with
+	 * jittered exponential backoff, a Retry-After header is honoured.
+	 * All requests to the same host are paused while its circuit breaker is open.
+	 * 
+	 * @param url Request url
+	 * @param datamodel Datamodel class
+	 * @param cacheable If true the response is cached
+	 * @param headers Additional request headers
+	 * @return Jackson request
+	 * @throws IOException
+	 */
+	private static <T> JacksonRequest<T> sendWithRetry(final String url, final Class<T> datamodel, final boolean cacheable, final Map<String, String> headers) throws IOException {
+		final CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+
+		try {
+			for (int attempt = 0;; attempt++) {
+				breaker.await();
+
+				final JacksonRequest<T> request;
+				try {
+					request = new JacksonRequest<>(Verb.GET, url, datamodel, cacheable, headers);
+
+				} catch (OAuthConnectionException e) {
+					/* Connection failed or timed out. */
+					breaker.onFailure(0);
+					if (attempt >= MAX_RETRIES) {
+						throw e;
+					}
+
+					Thread.sleep(getRetryDelay(attempt, 0));
+					continue;
+				}
+
+				switch (request.getCode()) {
+				case 429:
+				case 502:
+				case 503:
+				case 504:
+					/* Server overloaded. */
+					final long retryAfter = parseRetryAfter(request.getHeader("Retry-After"));
+					breaker.onFailure(retryAfter);
+					if (attempt >= MAX_RETRIES) {
+						return request;
+					}
+
+					request.discardResponse();
+					Thread.sleep(getRetryDelay(attempt, retryAfter));
+					break;
+
+				default:
+					breaker.onSuccess();
+					return request;
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request interrupted!");
+		}
+	}
+
+	/**
+	 * Get jittered exponential backoff delay.
+	 * 
+	 * @param attempt Number of the failed attempt (starting at 0)
+	 * @param retryAfter Delay requested by the server in ms or 0
+	 * @return Delay in ms
+	 */
+	private static long getRetryDelay(final int attempt, final long retryAfter) {
+		if (retryAfter > 0) {
+			return Math.min(MAX_RETRY_DELAY, retryAfter);
+		}
+
+		final long maxDelay = Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << attempt);
+		return maxDelay / 2 + ThreadLocalRandom.current().nextLong(maxDelay / 2 + 1);
+	}
+
+	/**
+	 * Parse Retry-After header (delay in seconds or http date).
+	 * 
+	 * @param value Header value or null
+	 * @return Delay in ms or 0
+	 */
+	private static long parseRetryAfter(final String value) {
+		if (value == null) {
+			return 0;
+		}
+
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * 1000L);
+
+		} catch (NumberFormatException e) {
+			try {
+				final ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+
+			} catch (DateTimeParseException e2) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Get url of a collection page.
+	 * 
+	 * @param url Url of the first page
+	 * @param offset Page offset
+	 * @return Page url
+	 */
+	private static String getPageUrl(final String url, final long offset) {
+		return offset == 0 ? url : url + "&offset=" + offset;
+	}
+
+	/**
+	 * Get the remaining pages of a paginated collection.
+	 * 
+	 * If the total is known all pages are requested in parallel, stepping by the page size of the server,
+	 * otherwise pages are requested one after another until a page is not full.
+	 * Entries which were already seen on a previous page are removed (the collection changed between
+	 * the page requests), pages without new entries are dropped, so a server which ignores the offset
+	 * can not loop forever.
+	 * 
+	 * @param url Url of the first page
+	 * @param firstPage First page
+	 * @param pagination Pagination metadata of the first page or null
+	 * @param datamodel Datamodel class
+	 * @param parser Page parser
+	 * @param sizeOf Number of entries of a page
+	 * @param filter Removes already seen entries of a page
+	 * @return Remaining pages in offset order
+	 * @throws IOException
+	 */
+	private static <T> List<T> getRemainingPages(final String url, final T firstPage, final Pagination pagination, final Class<T> datamodel, final PageParser<T> parser, final ToIntFunction<T> sizeOf, final PageFilter<T> filter) throws IOException {
+		final List<T> pages = new ArrayList<>();
+		final Set<String> ids = new HashSet<>();
+		final long total = pagination == null ? -1 : pagination.total;
+		final long limit = pagination == null || pagination.limit <= 0 ? PAGE_SIZE : pagination.limit;
+
+		/* The size of the unfiltered page tells if it was full. */
+		long size = sizeOf.applyAsInt(firstPage);
+		filter.removeSeen(firstPage, ids);
+
+		if (total < 0) {
+			/* No pagination metadata, a full page means there might be more entries. */
+			for (long offset = limit; size >= limit; offset += limit) {
+				final T page = getPage(getPageUrl(url, offset), datamodel, parser);
+				size = sizeOf.applyAsInt(page);
+
+				if (filter.removeSeen(page, ids) == 0) {
+					/* Repeated or empty page, no progress. */
+					break;
+				}
+
+				pages.add(page);
+			}
+
+			return pages;
+		}
+
+		final List<CompletableFuture<T>> futures = new ArrayList<>();
+		for (long offset = limit; offset < total; offset += limit) {
+			final String pageUrl = getPageUrl(url, offset);
+
+			if (!LIMITER.tryAcquire()) {
+				/* No permit available, the calling job requests the page with its own permit. */
+				futures.add(CompletableFuture.completedFuture(getPage(pageUrl, datamodel, parser)));
+				continue;
+			}
+
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return getPage(pageUrl, datamodel, parser);
+
+				} catch (IOException e) {
+					throw new CompletionException(e);
+
+				} finally {
+					LIMITER.release();
+				}
+			}, PAGE_POOL));
+		}
+
+		for (final CompletableFuture<T> future : futures) {
+			final T page;
+			try {
+				page = future.join();
+
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+
+			if (filter.removeSeen(page, ids) > 0) {
+				pages.add(page);
+			}
+		}
+
+		return pages;
+	}
+
+	/**
+	 * Remove already seen entries of a collection page.
+	 * 
+	 * @param collection Entries by id or null
+	 * @param ids Seen ids
+	 * @return Number of new entries
+	 */
+	private static int removeSeen(final Map<String, ?> collection, final Set<String> ids) {
+		if (collection == null) {
+			return 0;
+		}
+
+		collection.keySet().removeIf(id -> !ids.add(id));
+		return collection.size();
+	}
+
+	/**
+	 * Remove already seen entries of a list page.
+	 * 
+	 * @param entries Page entries
+	 * @param idOf Id of an entry
+	 * @param ids Seen ids
+	 * @return Number of new entries
+	 */
+	private static <E> int removeSeen(final List<E> entries, final Function<E, String> idOf, final Set<String> ids) {
+		entries.removeIf(entry -> !ids.add(idOf.apply(entry)));
+		return entries.size();
+	}
+
+	/**
+	 * Remove already seen entries of a folder listing.
+	 * 
+	 * @param folders Folder listing
+	 * @param ids Seen folder and document ids
+	 * @return Number of new entries
+	 */
+	private static int removeSeen(final DocumentFolders folders, final Set<String> ids) {
+		return removeSeen(folders.subfolders, (DocumentFolder folder) -> folder.id, ids)
+				+ removeSeen(folders.file_refs, (Document document) -> document.id, ids);
+	}
+
+	/**
+	 * Remove already seen entries of a folder listing.
+	 * 
+	 * @param listing Folder tree-node
+	 * @param ids Seen folder and document ids
+	 * @return Number of new entries
+	 */
+	private static int removeSeen(final DocumentFolderTreeNode listing, final Set<String> ids) {
+		return removeSeen(listing.folders, (DocumentFolderTreeNode folder) -> folder.folderId, ids)
+				+ removeSeen(listing.documents, (DocumentTreeNode document) -> document.documentId, ids);
+	}
+
+	/**
+	 * Get a further page of a paginated collection.
+	 * 
+	 * The status of the first page was already checked, so every error is unexpected.
+	 * 
+	 * @param url Page url
+	 * @param datamodel Datamodel class
+	 * @param parser Page parser
+	 * @return Page
+	 * @throws IOException
+	 */
+	private static <T> T getPage(final String url, final Class<T> datamodel, final PageParser<T> parser) throws IOException {
+		try (final JacksonRequest<T> request = send(url, datamodel, true)) {
+			if (request.getCode() != 200) {
+				throw new StatusCodeException(request.getCode());
+			}
+
+			return parser.parse(request);
+		}
+	}
+
 	/**
 	 * Liefert alle Semester zurück, in denen der Nutzer in mindestens eine Veranstaltung eingetragen ist.
 	 * 
@@ -42,19 +421,36 @@ public final class RestApi {
 			throw new IllegalArgumentException("Invalid semester id!");
 		}
 
-		final JacksonRequest<Courses> request = new JacksonRequest<>(Verb.GET,
-				StudIPApiProvider.BASE_URL + "/user/" + userId + "/courses?semester=" + semesterId + "&limit=1000&cancel_login=1", Courses.class);
+		final String url = StudIPApiProvider.BASE_URL + "/user/" + userId + "/courses?semester=" + semesterId + "&limit=" + PAGE_SIZE + "&cancel_login=1";
+		final Courses courses;
+
+		try (final JacksonRequest<Courses> request = send(url, Courses.class, true)) {
+			switch (request.getCode()) {
+			case 200:
+				courses = request.parseResponse();
+				break;
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			case 404:
+				throw new NotFoundException("Not found!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
+		}
 
-		switch (request.getCode()) {
-		case 200:
-			return request.parseResponse();
-		case 401:
-			throw new UnauthorizedException("Unauthorized!");
-		case 404:
-			throw new NotFoundException("Not found!");
-		default:
-			throw new IllegalStateException("Statuscode: " + request.getCode());
+		/* Merge remaining pages. */
+		for (final Courses page : getRemainingPages(url, courses, courses.pagination, Courses.class, JacksonRequest::parseResponse,
+				page -> page.collection == null ? 0 : page.collection.size(),
+				(page, ids) -> removeSeen(page.collection, ids))) {
+			if (page.collection != null) {
+				if (courses.collection == null) {
+					courses.collection = new HashMap<>();
+				}
+				courses.collection.putAll(page.collection);
+			}
 		}
+
+		return courses;
 	}
 
 	/**
@@ -67,6 +463,91 @@ public final class RestApi {
 	 * @throws IOException 
 	 */
 	public static DocumentFolders getAllDocumentsByRangeAndFolderId(final String rangeId, final String folderId) throws UnauthorizedException, ForbiddenException, NotFoundException, IOException {
+		final String url = getFolderUrl(rangeId, folderId);
+		final DocumentFolders folders;
+
+		try (final JacksonRequest<DocumentFolders> request = send(url, DocumentFolders.class, true)) {
+			switch (request.getCode()) {
+			case 200:
+				folders = request.parseResponse();
+				break;
+			case 400: /* Range has no documents. */
+				return new DocumentFolders();
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			case 403:
+				throw new ForbiddenException("Forbidden!");
+			case 404:
+				throw new NotFoundException("Not found!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
+		}
+
+		/* Merge remaining pages. */
+		for (final DocumentFolders page : getRemainingPages(url, folders, folders.pagination, DocumentFolders.class, JacksonRequest::parseResponse,
+				page -> Math.max(page.subfolders.size(), page.file_refs.size()), RestApi::removeSeen)) {
+			folders.subfolders.addAll(page.subfolders);
+			folders.file_refs.addAll(page.file_refs);
+		}
+
+		return folders;
+	}
+
+	/**
+	 * Liefert die Dateien und Ordner eines angegebenen Ordners einer Veranstaltung als Baumknoten zurück.
+	 * 
+	 * Die Antwort wird direkt in die Baumknoten gestreamt, ohne Umweg über das Datenmodell.
+	 * 
+	 * @return Folder tree-node which holds the subfolders and documents
+	 * @throws UnauthorizedException 
+	 * @throws ForbiddenException 
+	 * @throws NotFoundException 
+	 * @throws IOException 
+	 */
+	public static DocumentFolderTreeNode getFolderListingByRangeAndFolderId(final String rangeId, final String folderId) throws UnauthorizedException, ForbiddenException, NotFoundException, IOException {
+		final String url = getFolderUrl(rangeId, folderId);
+		final Pagination pagination = new Pagination();
+		final DocumentFolderTreeNode listing;
+
+		try (final JacksonRequest<DocumentFolders> request = send(url, DocumentFolders.class, true)) {
+			switch (request.getCode()) {
+			case 200:
+				try (final InputStream is = request.getStream()) {
+					listing = FolderListingParser.parse(is, pagination);
+				}
+				break;
+			case 400: /* Range has no documents. */
+				return new DocumentFolderTreeNode();
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			case 403:
+				throw new ForbiddenException("Forbidden!");
+			case 404:
+				throw new NotFoundException("Not found!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
+		}
+
+		/* Merge remaining pages. */
+		for (final DocumentFolderTreeNode page : getRemainingPages(url, listing, pagination, DocumentFolderTreeNode.class, RestApi::parseFolderListing,
+				page -> Math.max(page.folders.size(), page.documents.size()), RestApi::removeSeen)) {
+			listing.folders.addAll(page.folders);
+			listing.documents.addAll(page.documents);
+		}
+
+		return listing;
+	}
+
+	/**
+	 * Get url of a folder listing.
+	 * 
+	 * @param rangeId Course id
+	 * @param folderId Folder id or null for the course root folder
+	 * @return Url of the first page
+	 */
+	private static String getFolderUrl(final String rangeId, final String folderId) {
 		if (!rangeId.matches(STUDIP_ID_REGEX)) {
 			throw new IllegalArgumentException("Invalid range id!");
 		}
@@ -74,58 +555,204 @@ public final class RestApi {
 			throw new IllegalArgumentException("Invalid folder id!");
 		}
 
-		final JacksonRequest<DocumentFolders> request = new JacksonRequest<>(Verb.GET,
-				folderId == null
-				? StudIPApiProvider.BASE_URL + "/course/" + rangeId + "/top_folder?limit=1000&cancel_login=1"
-				: StudIPApiProvider.BASE_URL + "/folder/" + folderId + "?limit=1000&cancel_login=1",
-				DocumentFolders.class);
+		return folderId == null
+				? StudIPApiProvider.BASE_URL + "/course/" + rangeId + "/top_folder?limit=" + PAGE_SIZE + "&cancel_login=1"
+				: StudIPApiProvider.BASE_URL + "/folder/" + folderId + "?limit=" + PAGE_SIZE + "&cancel_login=1";
+	}
 
-		switch (request.getCode()) {
-		case 200:
-			return request.parseResponse();
-		case 400: /* Range has no documents. */
-			return new DocumentFolders();
-		case 401:
-			throw new UnauthorizedException("Unauthorized!");
-		case 403:
-			throw new ForbiddenException("Forbidden!");
-		case 404:
-			throw new NotFoundException("Not found!");
-		default:
-			throw new IllegalStateException("Statuscode: " + request.getCode());
+	/**
+	 * Parse folder listing page.
+	 * 
+	 * @param request
+	 * @return Detached folder tree-node
+	 * @throws IOException
+	 */
+	private static DocumentFolderTreeNode parseFolderListing(final JacksonRequest<DocumentFolderTreeNode> request) throws IOException {
+		try (final InputStream is = request.getStream()) {
+			return FolderListingParser.parse(is);
 		}
 	}
 
 	/**
-	 * Liefert das Dokument als solches zurück. 
+	 * Liefert das Dokument als solches zurück.
 	 * 
-	 * @return
+	 * The document is written to a part file, use FileDownload.completePart() to publish it.
+	 * An interrupted download is resumed with a range request if the part file belongs to the same
+	 * document version, If-Range makes sure the server sends the full document if it has changed meanwhile.
+	 * 
+	 * @param documentNode Document tree-node
+	 * @param documentFile Path to document file destination
+	 * @return Size of the part file
 	 * @throws UnauthorizedException 
 	 * @throws ForbiddenException 
 	 * @throws NotFoundException 
 	 * @throws IOException 
 	 */
-	public static long downloadDocumentById(final String documentId, final Path documentFile) throws UnauthorizedException, ForbiddenException, NotFoundException, ServerErrorException, IOException {
-		if (!documentId.matches(STUDIP_ID_REGEX)) {
+	public static long downloadDocument(final DocumentTreeNode documentNode, final Path documentFile) throws UnauthorizedException, ForbiddenException, NotFoundException, ServerErrorException, IOException {
+		final String url = getDownloadUrl(documentNode);
+		long offset = FileDownload.getResumeOffset(documentNode, documentFile);
+
+		for (;;) {
+			final Map<String, String> headers = new HashMap<>();
+			final PartFileEntry entry = offset > 0 ? FileDownload.readPartEntry(documentFile) : null;
+			if (entry != null) {
+				headers.put("Range", "bytes=" + offset + "-");
+				headers.put("If-Range", entry.eTag != null ? entry.eTag : entry.lastModified);
+			}
+
+			try (final JacksonRequest<Object> request = sendWithRetry(url, Object.class, false, headers)) {
+				switch (request.getCode()) {
+				case 206:
+					if (entry == null || parseContentRangeStart(request.getHeader("Content-Range")) != offset) {
+						/* Unexpected range, start over. */
+						offset = 0;
+						continue;
+					}
+
+					if (LOG.isLoggable(Level.INFO)) {
+						LOG.info("Resume: " + documentNode.name + " at " + offset + " bytes");
+					}
+
+					return offset + FileDownload.get(request.getStream(), documentFile, entry, offset, Priority.forSize(documentNode.fileSize));
+				case 200:
+					/* Full document, store validators for a later resume. */
+					final PartFileEntry newEntry = new PartFileEntry(documentNode, getStrongETag(request), request.getHeader("Last-Modified"));
+
+					return FileDownload.get(request.getStream(), documentFile, newEntry, 0, Priority.forSize(documentNode.fileSize));
+				case 416:
+					if (entry != null) {
+						/* Range not satisfiable, start over. */
+						offset = 0;
+						continue;
+					}
+					throw new StatusCodeException(request.getCode());
+				case 401:
+					throw new UnauthorizedException("Unauthorized!");
+				case 403:
+					throw new ForbiddenException("Forbidden!");
+				case 404:
+					throw new NotFoundException("Not found!");
+				case 500:
+					throw new ServerErrorException("Server error!");
+				default:
+					throw new StatusCodeException(request.getCode());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Download a byte range of the document into its preallocated part file.
+	 * 
+	 * The first segment is requested without If-Range, its validator (strong ETag or Last-Modified)
+	 * guards the requests of all other segments against a document change in between.
+	 * 
+	 * @param documentNode Document tree-node
+	 * @param documentFile Path to document file destination
+	 * @param start First byte position
+	 * @param end Last byte position (inclusive)
+	 * @param ifRange Validator of the first segment or null for the first segment
+	 * @return Validator of the response ("" if the server sent no usable one) or null if the server sent the full document
+	 * @throws DocumentChangedException If the document changed since the first segment
+	 * @throws UnauthorizedException 
+	 * @throws ForbiddenException 
+	 * @throws NotFoundException 
+	 * @throws IOException 
+	 */
+	public static String downloadDocumentRange(final DocumentTreeNode documentNode, final Path documentFile, final long start, final long end, final String ifRange) throws UnauthorizedException, ForbiddenException, NotFoundException, ServerErrorException, IOException {
+		final String url = getDownloadUrl(documentNode);
+		final Path partFile = FileDownload.getPartFile(documentFile);
+
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("Range", "bytes=" + start + "-" + end);
+		if (ifRange != null && !ifRange.isEmpty()) {
+			headers.put("If-Range", ifRange);
+		}
+
+		try (final JacksonRequest<Object> request = sendWithRetry(url, Object.class, false, headers)) {
+			switch (request.getCode()) {
+			case 206:
+				if (!("bytes " + start + "-" + end + "/" + documentNode.fileSize).equals(request.getHeader("Content-Range"))) {
+					throw new DocumentChangedException("Unexpected content range: " + request.getHeader("Content-Range"));
+				}
+
+				if (FileDownload.getSegment(request.getStream(), partFile, start, Priority.forSize(documentNode.fileSize)) != end - start + 1) {
+					throw new IOException("Incomplete segment!");
+				}
+
+				/* A weak ETag must not be used with If-Range. */
+				final String validator = getStrongETag(request) != null
+						? getStrongETag(request)
+						: request.getHeader("Last-Modified");
+				return validator != null ? validator : "";
+			case 200:
+				if (ifRange != null) {
+					throw new DocumentChangedException("Document changed during download!");
+				}
+
+				/* Server does not accept ranges. */
+				FileDownload.get(request.getStream(), partFile, 0, Priority.forSize(documentNode.fileSize));
+				return null;
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			case 403:
+				throw new ForbiddenException("Forbidden!");
+			case 404:
+				throw new NotFoundException("Not found!");
+			case 500:
+				throw new ServerErrorException("Server error!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
+		}
+	}
+
+	/**
+	 * Get strong ETag of the response.
+	 * 
+	 * @param request
+	 * @return ETag or null if the response has no or a weak ETag
+	 */
+	private static String getStrongETag(final JacksonRequest<?> request) {
+		final String eTag = request.getHeader("ETag");
+		return eTag == null || eTag.startsWith("W/") ? null : eTag;
+	}
+
+	/**
+	 * Get download url of a document.
+	 * 
+	 * @param documentNode Document tree-node
+	 * @return Download url
+	 */
+	private static String getDownloadUrl(final DocumentTreeNode documentNode) {
+		if (!documentNode.documentId.matches(STUDIP_ID_REGEX)) {
 			throw new IllegalArgumentException("Invalid document id!");
 		}
 
-		final JacksonRequest<Object> request = new JacksonRequest<>(Verb.GET,
-				StudIPApiProvider.BASE_URL + "/file/" + documentId + "/download?cancel_login=1", Object.class);
+		return StudIPApiProvider.BASE_URL + "/file/" + documentNode.documentId + "/download?cancel_login=1";
+	}
+
+	/**
+	 * Parse first byte position of a Content-Range header (e.g. "bytes 100-199/200").
+	 * 
+	 * @param contentRange Content-Range header value
+	 * @return First byte position or -1 if the header is invalid
+	 */
+	private static long parseContentRangeStart(final String contentRange) {
+		if (contentRange == null || !contentRange.startsWith("bytes ")) {
+			return -1;
+		}
 
-		switch (request.getCode()) {
-		case 200:
-			return FileDownload.get(request.getStream(), documentFile);
-		case 401:
-			throw new UnauthorizedException("Unauthorized!");
-		case 403:
-			throw new ForbiddenException("Forbidden!");
-		case 404:
-			throw new NotFoundException("Not found!");
-		case 500:
-			throw new ServerErrorException("Server error!");
-		default:
-			throw new IllegalStateException("Statuscode: " + request.getCode());
+		final int end = contentRange.indexOf('-');
+		if (end == -1) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(contentRange.substring(6, end).trim());
+
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 
@@ -137,17 +764,34 @@ public final class RestApi {
 	 * @throws IOException 
 	 */
 	public static Semesters getAllSemesters() throws UnauthorizedException, IOException {
-		final JacksonRequest<Semesters> request = new JacksonRequest<>(Verb.GET,
-				StudIPApiProvider.BASE_URL + "/semesters?limit=1000&cancel_login=1", Semesters.class);
+		final String url = StudIPApiProvider.BASE_URL + "/semesters?limit=" + PAGE_SIZE + "&cancel_login=1";
+		final Semesters semesters;
 
-		switch (request.getCode()) {
-		case 200:
-			return request.parseResponse();
-		case 401:
-			throw new UnauthorizedException("Unauthorized!");
-		default:
-			throw new IllegalStateException("Statuscode: " + request.getCode());
+		try (final JacksonRequest<Semesters> request = send(url, Semesters.class, true)) {
+			switch (request.getCode()) {
+			case 200:
+				semesters = request.parseResponse();
+				break;
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
 		}
+
+		/* Merge remaining pages. */
+		for (final Semesters page : getRemainingPages(url, semesters, semesters.pagination, Semesters.class, JacksonRequest::parseResponse,
+				page -> page.collection == null ? 0 : page.collection.size(),
+				(page, ids) -> removeSeen(page.collection, ids))) {
+			if (page.collection != null) {
+				if (semesters.collection == null) {
+					semesters.collection = new HashMap<>();
+				}
+				semesters.collection.putAll(page.collection);
+			}
+		}
+
+		return semesters;
 	}
 
 	/**
@@ -159,18 +803,18 @@ public final class RestApi {
 	 * @throws IOException 
 	 */
 	public static User getCurrentUser() throws UnauthorizedException, NotFoundException, IOException {
-		final JacksonRequest<User> request = new JacksonRequest<>(Verb.GET,
-				StudIPApiProvider.BASE_URL + "/user?cancel_login=1", User.class);
-
-		switch (request.getCode()) {
-		case 200:
-			return request.parseResponse();
-		case 401:
-			throw new UnauthorizedException("Unauthorized!");
-		case 404:
-			throw new NotFoundException("Not found!");
-		default:
-			throw new IllegalStateException("Statuscode: " + request.getCode());
+		try (final JacksonRequest<User> request = send(
+				StudIPApiProvider.BASE_URL + "/user?cancel_login=1", User.class, true)) {
+			switch (request.getCode()) {
+			case 200:
+				return request.parseResponse();
+			case 401:
+				throw new UnauthorizedException("Unauthorized!");
+			case 404:
+				throw new NotFoundException("Not found!");
+			default:
+				throw new StatusCodeException(request.getCode());
+			}
 		}
 	}
 }
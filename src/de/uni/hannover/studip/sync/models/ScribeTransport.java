@@ -0,0 +1,137 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Request;
+
+/**
+ * Blocking transport using scribe (HttpURLConnection, one connection per request).
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class ScribeTransport implements HttpTransport {
+
+	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+	private static final ScribeTransport INSTANCE = new ScribeTransport();
+
+	/**
+	 * Connection field of the scribe request (null if not accessible).
+	 */
+	private static final Field CONNECTION = getConnectionField();
+
+	/**
+	 * Socket factory which counts opened connections.
+	 */
+	private final SSLSocketFactory socketFactory = ConnectionStats.getInstance().getSSLContext().getSocketFactory();
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return ScribeTransport instance
+	 */
+	public static ScribeTransport getInstance() {
+		return INSTANCE;
+	}
+
+	private ScribeTransport() {
+		/* Singleton. */
+	}
+
+	/**
+	 * Scribe opens its connections itself, so the counting socket factory has to be set on a connection
+	 * which is handed to the request. Only these connections use the factory, the jvm default is unchanged.
+	 * 
+	 * @return Connection field or null
+	 */
+	private static Field getConnectionField() {
+		try {
+			final Field field = Request.class.getDeclaredField("connection");
+			field.setAccessible(true);
+			return field;
+
+		} catch (NoSuchFieldException | RuntimeException e) {
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Connections of the scribe transport are not counted: " + e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Open the connection of the request with the counting socket factory.
+	 * 
+	 * @param request
+	 */
+	private void openConnection(final OAuthRequest request) {
+		if (CONNECTION == null) {
+			return;
+		}
+
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(request.getCompleteUrl()).openConnection();
+			if (connection instanceof HttpsURLConnection) {
+				((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+			}
+
+			CONNECTION.set(request, connection);
+
+		} catch (IOException | IllegalAccessException e) {
+			throw new OAuthConnectionException(e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Response> sendAsync(final OAuthRequest request) {
+		try {
+			return CompletableFuture.completedFuture(send(request));
+
+		} catch (OAuthConnectionException e) {
+			final CompletableFuture<Response> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	@Override
+	public Response send(final OAuthRequest request) {
+		request.setConnectTimeout(10, TimeUnit.SECONDS);
+		request.setReadTimeout(30, TimeUnit.SECONDS);
+		request.setConnectionKeepAlive(true);
+		openConnection(request);
+
+		final org.scribe.model.Response response = request.send();
+
+		return new Response() {
+			@Override
+			public int getCode() {
+				return response.getCode();
+			}
+
+			@Override
+			public Map<String, String> getHeaders() {
+				return response.getHeaders();
+			}
+
+			@Override
+			protected InputStream openStream() {
+				return response.getStream();
+			}
+		};
+	}
+}
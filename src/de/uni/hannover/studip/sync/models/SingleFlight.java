@@ -0,0 +1,137 @@
+package de.uni.hannover.studip.sync.models;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-flight request coalescing.
+ * 
+ * Concurrent calls with the same key share the result of one call,
+ * the other callers wait until it is done.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public final class SingleFlight {
+
+	private static final SingleFlight INSTANCE = new SingleFlight();
+
+	/**
+	 * Coalesced call.
+	 * 
+	 * @param <V> Result type
+	 */
+	@FunctionalInterface
+	public interface Call<V> {
+		V call() throws IOException;
+	}
+
+	/**
+	 * Calls in flight by key.
+	 */
+	private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of executed calls.
+	 */
+	private final AtomicLong executed = new AtomicLong();
+
+	/**
+	 * Number of calls which shared the result of a call in flight.
+	 */
+	private final AtomicLong shared = new AtomicLong();
+
+	/**
+	 * Singleton instance getter.
+	 * 
+	 * @return SingleFlight instance
+	 */
+	public static SingleFlight getInstance() {
+		return INSTANCE;
+	}
+
+	private SingleFlight() {
+		// Use getInstance().
+	}
+
+	/**
+	 * Execute call or wait for the identical call in flight.
+	 * 
+	 * @param key Call key (e.g. request url)
+	 * @param call
+	 * @return Result of the call
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V execute(final String key, final Call<V> call) throws IOException {
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+
+		if (existing != null) {
+			/* Identical call in flight, wait for its result. */
+			shared.incrementAndGet();
+			try {
+				return (V) existing.get();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Request interrupted!");
+
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException(cause);
+			}
+		}
+
+		executed.incrementAndGet();
+		try {
+			final V result = call.call();
+			future.complete(result);
+			return result;
+
+		} catch (IOException | RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Get number of executed calls.
+	 * 
+	 * @return
+	 */
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * Get number of saved calls.
+	 * 
+	 * @return
+	 */
+	public long getShared() {
+		return shared.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Requests sent: " + getExecuted() + ", coalesced: " + getShared();
+	}
+}
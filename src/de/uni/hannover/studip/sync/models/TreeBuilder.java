@@ -3,9 +3,21 @@ package de.uni.hannover.studip.sync.models;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javafx.animation.AnimationTimer;
@@ -17,23 +29,43 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.*;
+import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
 import de.uni.hannover.studip.sync.models.jobs.BuildSemestersJob;
 
 /**
  * Semester/Course/Folder/Document tree builder.
  * 
+ * Jobs return a future which completes once the job and all of its child jobs are done,
+ * so a failure only affects the subtree of the failed job.
+ * 
  * @author Lennart Glauer
  */
 public class TreeBuilder implements AutoCloseable {
 
 	protected static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	protected static final ObjectMapper MAPPER = Config.getMapper();
+	protected static final RequestLimiter LIMITER = RequestLimiter.getInstance();
 
 	/**
 	 * Thread pool.
 	 */
 	protected final ExecutorService threadPool;
 
+	/**
+	 * Number of submitted jobs.
+	 */
+	protected final AtomicInteger submittedJobs = new AtomicInteger();
+
+	/**
+	 * Number of finished jobs (without child jobs).
+	 */
+	protected final AtomicInteger finishedJobs = new AtomicInteger();
+
+	/**
+	 * Error summary.
+	 */
+	private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
 	/**
 	 * Flag to signal graceful shutdown of worker threads.
 	 */
@@ -58,7 +90,32 @@ public class TreeBuilder implements AutoCloseable {
 	 * Start threadpool.
 	 */
 	protected TreeBuilder() {
-		threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		threadPool = newThreadPool();
+	}
+
+	/**
+	 * Create the job executor.
+	 * 
+	 * In virtual thread mode every job gets its own virtual thread,
+	 * otherwise the pool size is the configured connection ceiling.
+	 * In both modes the number of jobs in flight is bounded by the request limiter.
+	 * 
+	 * @return Executor service
+	 */
+	private static ExecutorService newThreadPool() {
+		final Config config = Config.getInstance();
+
+		if (config.isVirtualThreads()) {
+			try {
+				/* Available since Java 21. */
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+			} catch (ReflectiveOperationException e) {
+				LOG.warning("Virtual threads are not supported by this java runtime.");
+			}
+		}
+
+		return Executors.newFixedThreadPool(config.getMaxConnections());
 	}
 
 	/**
@@ -78,50 +135,250 @@ public class TreeBuilder implements AutoCloseable {
 	 * @throws IOException
 	 */
 	public synchronized int build(final Path tree) throws IOException {
+		return build(tree, true);
+	}
+
+	/**
+	 * Build the semester/course/folder/document tree and store it in json format.
+	 * 
+	 * This method always creates a new tree!
+	 * 
+	 * @param tree Path to tree file
+	 * @param doAllSemesters If false only the current semester is crawled, other semesters are stored as stubs
+	 * @throws IOException
+	 */
+	public synchronized int build(final Path tree, final boolean doAllSemesters) throws IOException {
+		return build(tree, Collections.emptyMap(), doAllSemesters, "Build");
+	}
+
+	/**
+	 * Update existing semester/course/folder/document tree.
+	 * 
+	 * Only courses whose cache time has expired are requested again.
+	 * 
+	 * @param tree Path to tree file
+	 * @throws IOException
+	 */
+	public synchronized int update(final Path tree) throws IOException {
+		return update(tree, true);
+	}
+
+	/**
+	 * Update existing semester/course/folder/document tree.
+	 * 
+	 * Only courses whose cache time has expired are requested again.
+	 * Semesters which are not crawled keep their previous courses or become stubs,
+	 * they are filled in by the first update which selects them.
+	 * 
+	 * @param tree Path to tree file
+	 * @param doAllSemesters If false only the current semester is crawled
+	 * @throws IOException
+	 */
+	public synchronized int update(final Path tree, final boolean doAllSemesters) throws IOException {
+		if (stopPending || Main.exitPending) {
+			return 0;
+		}
+
+		/* Read existing tree. */
+		final SemestersTreeNode oldRootNode = MAPPER.readerFor(SemestersTreeNode.class)
+				.readValue(Files.newInputStream(tree));
+
+		/* Index existing semester nodes, courses within their cache time will be reused. */
+		final Map<String, SemesterTreeNode> semesterCache = new HashMap<>();
+		for (final SemesterTreeNode semester : oldRootNode.semesters) {
+			semesterCache.put(semester.semesterId, semester);
+		}
+
+		return build(tree, semesterCache, doAllSemesters, "Update");
+	}
+
+	/**
+	 * Build the tree and store it in json format.
+	 * 
+	 * @param tree Path to tree file
+	 * @param semesterCache Maps semester id to semester tree-node of the previous tree
+	 * @param doAllSemesters If false only the current semester is crawled
+	 * @param action Action name used for logging
+	 * @throws IOException
+	 */
+	private int build(final Path tree, final Map<String, SemesterTreeNode> semesterCache, final boolean doAllSemesters, final String action) throws IOException {
 		if (stopPending || Main.exitPending) {
 			return 0;
 		}
 
 		/* Create empty root node. */
 		final SemestersTreeNode rootNode = new SemestersTreeNode();
-		final Phaser phaser = new Phaser(2); /* = self + first job. */
+		final long startTime = System.currentTimeMillis();
+		resetProgress();
 
 		/* Build tree with multiple threads. */
-		threadPool.execute(new BuildSemestersJob(this, phaser, rootNode));
+		final CompletableFuture<Void> rootJob = submit(new BuildSemestersJob(this, rootNode, semesterCache, doAllSemesters));
 
-		startProgressAnimation(phaser);
+		startProgressAnimation(rootJob);
 
 		/* Wait until all jobs are done. */
-		phaser.arriveAndAwaitAdvance();
-
-		if (!stopPending && !Main.exitPending) {
+		if (await(rootJob, "Semesters") && !stopPending && !Main.exitPending) {
 			/* Serialize the tree to json and store it in the tree file. */
 			MAPPER.writerFor(SemestersTreeNode.class)
 					.writeValue(Files.newOutputStream(tree), rootNode);
 
-			LOG.info("Build done!");
+			if (LOG.isLoggable(Level.INFO)) {
+				LOG.info(action + " done in " + (System.currentTimeMillis() - startTime) + "ms!");
+			}
 		}
 
-		return phaser.getRegisteredParties() - 1;
+		return submittedJobs.get();
 	}
-	
+
 	/**
-	 * Update existing semester/course/folder/document tree.
+	 * Submit job.
 	 * 
-	 * @param tree Path to tree file
+	 * The job is executed once the request limiter permits and returns the future of its child jobs.
+	 * 
+	 * @param job
+	 * @return Future which completes once the job and all of its child jobs are done
+	 */
+	public CompletableFuture<Void> submit(final Callable<CompletableFuture<Void>> job) {
+		submittedJobs.incrementAndGet();
+
+		return CompletableFuture.supplyAsync(() -> {
+			if (stopPending || Main.exitPending) {
+				throw new CancellationException("Sync stopped!");
+			}
+
+			try {
+				LIMITER.acquire();
+
+			} catch (InterruptedException e) {
+				/* Thread pool shutdown. */
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Sync stopped!");
+			}
+
+			try {
+				return job.call();
+
+			} catch (RuntimeException e) {
+				throw e;
+
+			} catch (Exception e) {
+				throw new CompletionException(e);
+
+			} finally {
+				LIMITER.release();
+				finishedJobs.incrementAndGet();
+			}
+		}, threadPool).thenCompose(childJobs -> childJobs);
+	}
+
+	/**
+	 * Wait until all given jobs are done.
+	 * 
+	 * @param jobs
+	 * @return Future which completes once all jobs are done
+	 */
+	public static CompletableFuture<Void> allOf(final List<CompletableFuture<Void>> jobs) {
+		return CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[jobs.size()]));
+	}
+
+	/**
+	 * Check if the semester is the current semester.
+	 * 
+	 * @param semesterNode Semester tree-node
+	 * @return True, if now is within the semester period
+	 */
+	public static boolean isCurrentSemester(final SemesterTreeNode semesterNode) {
+		final long now = System.currentTimeMillis() / 1000L;
+		return now > semesterNode.begin && now < semesterNode.end;
+	}
+
+	/**
+	 * Get the local directory of a course, if its documents should be synchronized while the tree is built.
+	 * 
+	 * @param semesterNode Semester tree-node
+	 * @param courseNode Course tree-node
+	 * @return Path to course directory or null
+	 */
+	public Path getCourseDirectory(final SemesterTreeNode semesterNode, final CourseTreeNode courseNode) {
+		return null;
+	}
+
+	/**
+	 * Folder listing done, the documents of this folder node are complete.
+	 * 
+	 * @param folderNode Folder tree-node
+	 * @param directory Path to folder directory
+	 * @param recursive If true the whole subtree is complete (reused from the previous tree)
+	 * @return Futures of started jobs
 	 * @throws IOException
 	 */
-	public synchronized int update(final Path tree) throws IOException {
-		// TODO
-		return build(tree);
+	public List<CompletableFuture<Void>> onFolderDone(final DocumentFolderTreeNode folderNode, final Path directory, final boolean recursive) throws IOException {
+		return Collections.emptyList();
 	}
 
-	public void execute(final Runnable job) {
-		threadPool.execute(job);
+	/**
+	 * Wait for job.
+	 * 
+	 * @param job
+	 * @param context Name of the failed subtree used in the error summary
+	 * @return True, if the job was successful
+	 */
+	protected boolean await(final CompletableFuture<Void> job, final String context) {
+		try {
+			job.join();
+			return true;
+
+		} catch (CompletionException | CancellationException e) {
+			handleError(context, e);
+			return false;
+		}
 	}
 
-	public void shutdownNow() {
-		threadPool.shutdownNow();
+	/**
+	 * Handle failed job.
+	 * 
+	 * An invalid access token stops all remaining jobs,
+	 * other errors are added to the error summary.
+	 * 
+	 * @param context Name of the failed subtree used in the error summary
+	 * @param t Exception
+	 */
+	public void handleError(final String context, final Throwable t) {
+		Throwable cause = t;
+		while (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+
+		if (cause instanceof CancellationException) {
+			/* Sync stopped. */
+			return;
+		}
+
+		if (cause instanceof UnauthorizedException) {
+			/* Invalid oauth access token. */
+			if (!stopPending) {
+				stopPending = true;
+				Platform.runLater(() -> OAuth.getInstance().removeAccessToken());
+			}
+			return;
+		}
+
+		final String error = context + ": " + cause.getClass().getSimpleName()
+				+ (cause.getMessage() == null ? "" : " (" + cause.getMessage() + ")");
+		errors.add(error);
+
+		if (LOG.isLoggable(Level.WARNING)) {
+			LOG.warning(error);
+		}
+	}
+
+	/**
+	 * Get error summary.
+	 * 
+	 * @return List of errors
+	 */
+	public List<String> getErrors() {
+		return new ArrayList<>(errors);
 	}
 
 	/**
@@ -146,14 +403,22 @@ public class TreeBuilder implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Reset job counters.
+	 */
+	protected void resetProgress() {
+		submittedJobs.set(0);
+		finishedJobs.set(0);
+	}
+
 	/**
 	 * Start gui progress animation.
 	 * 
-	 * @param phaser
+	 * @param rootJob
 	 */
-	protected void startProgressAnimation(final Phaser phaser) {
+	protected void startProgressAnimation(final CompletableFuture<Void> rootJob) {
 		if (progressIndicator != null) {
-			if (phaser.getRegisteredParties() < 2) {
+			if (submittedJobs.get() == 0) {
 				progressIndicator.setProgress(1);
 
 			} else {
@@ -162,9 +427,9 @@ public class TreeBuilder implements AutoCloseable {
 
 					@Override
 					public void handle(final long now) {
-						final int a = phaser.getArrivedParties() - 1;
-						final int r = phaser.getRegisteredParties() - 1;
-						final double x = phaser.getPhase() == 0 ? Math.min(0.02 * a * a, (double) a / r) : 1.2;
+						final int a = finishedJobs.get();
+						final int r = submittedJobs.get();
+						final double x = rootJob.isDone() ? 1.2 : Math.min(0.02 * a * a, (double) a / r);
 
 						if (y <= x) {
 							progressIndicator.setProgress(y += 0.1 * (x - y));
@@ -178,4 +443,4 @@ public class TreeBuilder implements AutoCloseable {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -2,15 +2,14 @@ package de.uni.hannover.studip.sync.models;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import de.elanev.studip.android.app.backend.datamodel.Document;
-import de.elanev.studip.android.app.backend.datamodel.DocumentFolder;
+import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
 import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
 import de.uni.hannover.studip.sync.utils.FileBrowser;
 
@@ -25,12 +24,12 @@ public final class TreeConflict {
 	/**
 	 * Resolve folder name conflicts.
 	 * 
-	 * @notice The folder name might be modified.
-	 * @param fileIndex Parent folder's filename index.
-	 * @param fileIndexMap Maps folder name to filename index.
+	 * @notice The folder name might be modified, must be called within a merge step of the parent file index.
+	 * @param fileIndex Parent folder's file index.
+	 * @param fileIndexMap Maps folder name to file index.
 	 * @param folder Current folder.
 	 */
-	public static Set<String> resolveFolderNameConflict(final Set<String> fileIndex, final Map<String, Set<String>> fileIndexMap, final DocumentFolder folder) {
+	public static FileIndex resolveFolderNameConflict(final FileIndex fileIndex, final Map<String, FileIndex> fileIndexMap, final DocumentFolderTreeNode folder) {
 		if (StudIPApiProvider.DEFAULT_FOLDER.equals(folder.name.trim())) {
 			/* Merge default folder with parent. */
 			return fileIndex;
@@ -40,23 +39,21 @@ public final class TreeConflict {
 		String folderName = FileBrowser.removeIllegalCharacters(folder.name).toLowerCase(Locale.GERMANY);
 		if (!fileIndexMap.containsKey(folderName)) {
 			/* Folder does not exist yet. */
-			synchronized (fileIndex) {
-				if (fileIndex.contains(folderName)) {
-					/* Resolve file name conflict. */
-					if (LOG.isLoggable(Level.WARNING)) {
-						LOG.warning("Folder/file name conflict: " + folderName);
-					}
-
-					folder.name = FileBrowser.appendFilename(folder.name, "_" + folder.id);
-					folderName = FileBrowser.removeIllegalCharacters(folder.name).toLowerCase(Locale.GERMANY);
+			if (fileIndex.names.contains(folderName)) {
+				/* Resolve file name conflict. */
+				if (LOG.isLoggable(Level.WARNING)) {
+					LOG.warning("Folder/file name conflict: " + folderName);
 				}
 
-				/* Mark name as used. */
-				fileIndex.add(folderName);
+				folder.name = FileBrowser.appendFilename(folder.name, "_" + folder.folderId);
+				folderName = FileBrowser.removeIllegalCharacters(folder.name).toLowerCase(Locale.GERMANY);
 			}
 
-			/* Create folder filename index. */
-			fileIndexMap.put(folderName, new HashSet<String>());
+			/* Mark name as used. */
+			fileIndex.names.add(folderName);
+
+			/* Create folder file index. */
+			fileIndexMap.put(folderName, new FileIndex());
 
 		} else {
 			/* Merge folders. */
@@ -75,7 +72,7 @@ public final class TreeConflict {
 	 * @param fileIndex Folder filename index.
 	 * @param document Folder document.
 	 */
-	public static void resolveFileNameConflict(final Set<String> fileIndex, final Document document) {
+	public static void resolveFileNameConflict(final Set<String> fileIndex, final DocumentTreeNode document) {
 		/* Use lowercase name because Windows and MacOS filesystems are case insensitive. */
 		String fileName = FileBrowser.removeIllegalCharacters(document.name).toLowerCase(Locale.GERMANY);
 
@@ -86,7 +83,7 @@ public final class TreeConflict {
 					LOG.warning("File name conflict: " + fileName);
 				}
 
-				final Date chDate = new Date(document.chdate * 1000L);
+				final Date chDate = new Date(document.chDate * 1000L);
 				final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.GERMANY);
 
 				/* 1. Append change date.*/
@@ -95,7 +92,7 @@ public final class TreeConflict {
 
 				if (fileIndex.contains(fileName)) {
 					/* 2. Append Stud.IP document id. */
-					document.name = FileBrowser.appendFilename(document.name, "_" + document.id);
+					document.name = FileBrowser.appendFilename(document.name, "_" + document.documentId);
 					fileName = FileBrowser.removeIllegalCharacters(document.name).toLowerCase(Locale.GERMANY);
 				}
 
@@ -108,4 +105,27 @@ public final class TreeConflict {
 			fileIndex.add(fileName);
 		}
 	}
+
+	/**
+	 * Mark the names of an existing (already resolved) folder subtree as used.
+	 * 
+	 * @param fileIndex Folder filename index.
+	 * @param folderNode Existing folder tree-node.
+	 */
+	public static void indexFolder(final Set<String> fileIndex, final DocumentFolderTreeNode folderNode) {
+		synchronized (fileIndex) {
+			for (final DocumentFolderTreeNode folder : folderNode.folders) {
+				if (StudIPApiProvider.DEFAULT_FOLDER.equals(folder.name.trim())) {
+					/* Default folder is merged with parent. */
+					indexFolder(fileIndex, folder);
+				} else {
+					fileIndex.add(FileBrowser.removeIllegalCharacters(folder.name).toLowerCase(Locale.GERMANY));
+				}
+			}
+
+			for (final DocumentTreeNode document : folderNode.documents) {
+				fileIndex.add(FileBrowser.removeIllegalCharacters(document.name).toLowerCase(Locale.GERMANY));
+			}
+		}
+	}
 }
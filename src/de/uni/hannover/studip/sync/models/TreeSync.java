@@ -1,16 +1,37 @@
 package de.uni.hannover.studip.sync.models;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.concurrent.Phaser;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
 import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.*;
+import de.uni.hannover.studip.sync.exceptions.DiskSpaceException;
 import de.uni.hannover.studip.sync.models.jobs.DownloadDocumentJob;
 import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
 import de.uni.hannover.studip.sync.utils.FileBrowser;
+import de.uni.hannover.studip.sync.utils.FileDownload;
 
 /**
  * Semester/Course/Folder/Document tree sync.
@@ -21,11 +42,51 @@ public class TreeSync extends TreeBuilder {
 
 	private static final Config CONFIG = Config.getInstance();
 
+	/**
+	 * Disk space in bytes which is kept free (tree file, logs, other applications).
+	 */
+	private static final long MIN_FREE_SPACE = 64L * 1024 * 1024;
+
 	/**
 	 * The sync root directory.
 	 */
 	private final Path rootDirectory;
 
+	/**
+	 * Flag to signal that documents are synchronized while the tree is built.
+	 */
+	private volatile boolean pipelined;
+
+	/**
+	 * If true documents from all semesters are synchronized while the tree is built.
+	 */
+	private volatile boolean pipelineAllSemesters;
+
+	/**
+	 * Number of downloads submitted by the last sync.
+	 */
+	private final AtomicInteger numberOfDownloads = new AtomicInteger();
+
+	/**
+	 * Documents which failed to download in the pipelined sync, skipped by the catch-up sync.
+	 */
+	private final Set<String> failedDownloads = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Flag to signal that failed downloads are not retried.
+	 */
+	private boolean skipFailedDownloads;
+
+	/**
+	 * Downloaded files which are not written to the storage device yet (batched durability).
+	 */
+	private final Set<Path> unsyncedFiles = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Size of the submitted downloads which are not done yet.
+	 */
+	private final AtomicLong reservedSpace = new AtomicLong();
+
 	/**
 	 * Constructor.
 	 * 
@@ -42,6 +103,112 @@ public class TreeSync extends TreeBuilder {
 		this.rootDirectory = rootDirectory;
 	}
 
+	/**
+	 * Update the tree and synchronize all documents.
+	 * 
+	 * Downloads start as soon as the listing of their folder is known,
+	 * so network listing and downloads overlap. The tree is stored when all jobs are done.
+	 * 
+	 * @param tree Path to tree file
+	 * @param doAllSemesters If true documents from all semesters will be downloaded, otherwise only from current semester
+	 * @throws IOException
+	 */
+	public synchronized int updateAndSync(final Path tree, final boolean doAllSemesters) throws IOException {
+		int numberOfRequests;
+
+		numberOfDownloads.set(0);
+		failedDownloads.clear();
+		BandwidthLimiter.getInstance().resetStats();
+		pipelined = true;
+		pipelineAllSemesters = doAllSemesters;
+		try {
+			try {
+				numberOfRequests = update(tree, doAllSemesters);
+
+			} catch (NoSuchFileException | JsonParseException | JsonMappingException e) {
+				/* Invalid tree file. */
+				numberOfRequests = build(tree, doAllSemesters);
+			}
+
+		} finally {
+			pipelined = false;
+		}
+
+		/*
+		 * Catch up on courses which were restored from the previous tree after errors.
+		 * All other documents are up to date, so this is a local check only.
+		 * Downloads which already failed in this run are not retried.
+		 */
+		skipFailedDownloads = true;
+		try {
+			return numberOfRequests + doSync(tree, doAllSemesters);
+
+		} finally {
+			skipFailedDownloads = false;
+			failedDownloads.clear();
+		}
+	}
+
+	@Override
+	public Path getCourseDirectory(final SemesterTreeNode semesterNode, final CourseTreeNode courseNode) {
+		/* If doAllSemesters is false we will only sync the current semester. */
+		if (!pipelined || !(pipelineAllSemesters || isCurrentSemester(semesterNode))) {
+			return null;
+		}
+
+		return PathBuilder.toPath(CONFIG.getFolderStructure(), rootDirectory, semesterNode, courseNode);
+	}
+
+	@Override
+	public List<CompletableFuture<Void>> onFolderDone(final DocumentFolderTreeNode folderNode, final Path directory, final boolean recursive) {
+		/* Called within the merge lock of the file index, the directory is scanned by the thread pool. */
+		return Collections.singletonList(CompletableFuture.supplyAsync(() -> {
+			try {
+				return allOf(syncFolder(folderNode, directory, recursive));
+
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, threadPool).thenCompose(jobs -> jobs));
+	}
+
+	/**
+	 * Scan the folder directory and submit the downloads of the folder.
+	 * 
+	 * @param folderNode Folder tree-node
+	 * @param directory Path to folder directory
+	 * @param recursive If true the whole subtree is synchronized
+	 * @return Futures of started jobs
+	 * @throws IOException
+	 */
+	private List<CompletableFuture<Void>> syncFolder(final DocumentFolderTreeNode folderNode, final Path directory, final boolean recursive) throws IOException {
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+		final DownloadPlanner planner = new DownloadPlanner();
+
+		if (!Files.isDirectory(directory)) {
+			Files.createDirectories(directory);
+		}
+
+		final Map<String, BasicFileAttributes> entries = readDirectory(directory);
+
+		if (recursive) {
+			doFolder(planner, folderNode, directory, entries, new HashMap<>(), false);
+
+		} else {
+			synchronized (folderNode.documents) {
+				for (final DocumentTreeNode document : folderNode.documents) {
+					doDocument(planner, folderNode, document, directory, entries, new HashMap<>(), false);
+				}
+			}
+		}
+
+		/* Only the documents of this folder are known, so the policy orders them within the folder. */
+		reserveSpace(planner.getBytes());
+		download(jobs, planner.plan(CONFIG.getDownloadOrder()));
+
+		return jobs;
+	}
+
 	/**
 	 * Synchronize all documents.
 	 * 
@@ -50,80 +217,231 @@ public class TreeSync extends TreeBuilder {
 	 * @throws IOException
 	 */
 	public synchronized int sync(final Path tree, final boolean doAllSemesters) throws IOException {
+		numberOfDownloads.set(0);
+		BandwidthLimiter.getInstance().resetStats();
+		return doSync(tree, doAllSemesters);
+	}
+
+	/**
+	 * Synchronize all documents.
+	 * 
+	 * @param tree Path to tree file
+	 * @param doAllSemesters If true documents from all semesters will be downloaded, otherwise only from current semester
+	 * @throws IOException
+	 */
+	private int doSync(final Path tree, final boolean doAllSemesters) throws IOException {
 		if (stopPending || Main.exitPending) {
 			return 0;
 		}
 
 		/* Read existing tree. */
-		final SemestersTreeNode rootNode = MAPPER.readerFor(SemestersTreeNode.class)
+		SemestersTreeNode rootNode = MAPPER.readerFor(SemestersTreeNode.class)
 				.readValue(Files.newInputStream(tree));
 
-		final Phaser phaser = new Phaser(1); /* = self. */
-		final long now = System.currentTimeMillis() / 1000L;
+		if (!skipFailedDownloads && hasSelectedStub(rootNode, doAllSemesters)) {
+			/* Semesters which were not selected by the last update are built on demand. */
+			update(tree, doAllSemesters);
+
+			rootNode = MAPPER.readerFor(SemestersTreeNode.class)
+					.readValue(Files.newInputStream(tree));
+		}
+
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+		final DownloadPlanner planner = new DownloadPlanner();
+		final long startTime = System.currentTimeMillis();
 		final String folderStructure = CONFIG.getFolderStructure();
 
 		/* Sync tree with multiple threads. */
 		isDirty = false;
+		resetProgress();
 		for (final SemesterTreeNode semester : rootNode.semesters) {
 			/* If doAllSemesters is false we will only sync the current semester. */
-			if (doAllSemesters || (now > semester.begin && now < semester.end)) {
+			final boolean currentSemester = isCurrentSemester(semester);
+			if (doAllSemesters || currentSemester) {
+				if (semester.stub && LOG.isLoggable(Level.WARNING)) {
+					LOG.warning("Semester not built yet: " + semester.title);
+				}
+
 				for (final CourseTreeNode course : semester.courses) {
 					final Path courseDirectory = PathBuilder.toPath(folderStructure, rootDirectory, semester, course);
 					if (!Files.isDirectory(courseDirectory)) {
 						Files.createDirectories(courseDirectory);
 					}
 
-					doFolder(phaser, course.root, courseDirectory);
+					final Map<String, BasicFileAttributes> entries = readDirectory(courseDirectory);
+					final Map<String, Boolean> documents = new HashMap<>();
+
+					doFolder(planner, course.root, courseDirectory, entries, documents, currentSemester);
+					removeStaleParts(courseDirectory, entries, documents);
 				}
 			}
 		}
 
-		startProgressAnimation(phaser);
+		/* All pending downloads are known, submit them in the order of the policy. */
+		final List<DownloadPlanner.Download> plan = planner.plan(CONFIG.getDownloadOrder());
+		final int connections = LIMITER.getLimit();
+		final long predictedTime = planner.predict(plan, connections);
+		final long downloadStartTime = System.currentTimeMillis();
+
+		if (!plan.isEmpty() && LOG.isLoggable(Level.INFO)) {
+			LOG.info("Download plan: " + plan.size() + " files, " + planner.getBytes() / 1024 + " KiB, predicted " + predictedTime + "ms");
+		}
+
+		/* Fail before any download starts, instead of filling the disk partway through. */
+		reserveSpace(planner.getBytes());
+		download(jobs, plan);
+
+		final CompletableFuture<Void> syncJob = allOf(jobs);
+
+		startProgressAnimation(syncJob);
 
 		/* Wait until all jobs are done. */
-		phaser.arriveAndAwaitAdvance();
+		await(syncJob, "Sync");
+
+		/* Published files are complete, even if the sync was stopped. */
+		forceUnsyncedFiles();
+		ContentIndex.getInstance().save();
 
 		if (!stopPending && !Main.exitPending) {
+			if (!plan.isEmpty()) {
+				final long downloadTime = System.currentTimeMillis() - downloadStartTime;
+				planner.onDone(downloadTime, connections);
+
+				if (LOG.isLoggable(Level.INFO)) {
+					LOG.info("Downloads done in " + downloadTime + "ms (predicted " + predictedTime + "ms)!");
+				}
+			}
+
 			if (isDirty) {
 				/* Serialize the tree to json and store it in the tree file. */
 				MAPPER.writerFor(SemestersTreeNode.class)
 						.writeValue(Files.newOutputStream(tree), rootNode);
 			}
 
-			LOG.info("Sync done!");
+			if (LOG.isLoggable(Level.INFO)) {
+				LOG.info("Sync done in " + (System.currentTimeMillis() - startTime) + "ms!");
+			}
+		}
+
+		return submittedJobs.get();
+	}
+
+	/**
+	 * Check if a semester which is synchronized was not built yet.
+	 * 
+	 * @param rootNode Root tree-node
+	 * @param doAllSemesters If false only the current semester is synchronized
+	 * @return True if a stub semester is synchronized
+	 */
+	private static boolean hasSelectedStub(final SemestersTreeNode rootNode, final boolean doAllSemesters) {
+		for (final SemesterTreeNode semester : rootNode.semesters) {
+			if (semester.stub && (doAllSemesters || isCurrentSemester(semester))) {
+				return true;
+			}
 		}
 
-		return phaser.getRegisteredParties() - 1;
+		return false;
+	}
+
+	/**
+	 * Get number of downloads submitted by the last sync (new and modified documents).
+	 * 
+	 * @return
+	 */
+	public int getNumberOfDownloads() {
+		return numberOfDownloads.get();
+	}
+
+	/**
+	 * Add downloaded file to the batched fsync at the end of the sync.
+	 * 
+	 * @param file Path to downloaded file
+	 */
+	public void addUnsyncedFile(final Path file) {
+		unsyncedFiles.add(file);
+	}
+
+	/**
+	 * Write all batched files and their directories to the storage device.
+	 */
+	private void forceUnsyncedFiles() {
+		if (unsyncedFiles.isEmpty()) {
+			return;
+		}
+
+		final long startTime = System.currentTimeMillis();
+		final Set<Path> directories = new HashSet<>();
+		int count = 0;
+
+		for (final Iterator<Path> it = unsyncedFiles.iterator(); it.hasNext();) {
+			final Path file = it.next();
+			it.remove();
+
+			try {
+				FileDownload.force(file);
+				directories.add(file.getParent());
+				count++;
+
+			} catch (IOException e) {
+				/* File was moved or deleted meanwhile. */
+				if (LOG.isLoggable(Level.WARNING)) {
+					LOG.warning("Fsync failed: " + file);
+				}
+			}
+		}
+
+		for (final Path directory : directories) {
+			FileDownload.forceDirectory(directory);
+		}
+
+		if (LOG.isLoggable(Level.INFO)) {
+			LOG.info("Fsync of " + count + " files done in " + (System.currentTimeMillis() - startTime) + "ms!");
+		}
 	}
 
 	/**
 	 * Folder node handler.
 	 * 
-	 * @param phaser
+	 * @param planner Download planner
 	 * @param folderNode Folder tree-node
 	 * @param parentDirectory Path to parent directory
+	 * @param entries Attributes of the parent directory entries
+	 * @param documents Documents of the parent directory, true if the download is pending
+	 * @param currentSemester True if the folder belongs to the current semester
 	 * @throws IOException 
 	 */
-	private void doFolder(final Phaser phaser, final DocumentFolderTreeNode folderNode, final Path parentDirectory) throws IOException {
+	private void doFolder(final DownloadPlanner planner, final DocumentFolderTreeNode folderNode, final Path parentDirectory, final Map<String, BasicFileAttributes> entries, final Map<String, Boolean> documents, final boolean currentSemester) throws IOException {
 		/* Traverse folder structure (recursive). */
 		for (final DocumentFolderTreeNode folder : folderNode.folders) {
 			if (StudIPApiProvider.DEFAULT_FOLDER.equals(folder.name.trim())) {
 				/* Merge default folder with parent. */
-				doFolder(phaser, folder, parentDirectory);
+				doFolder(planner, folder, parentDirectory, entries, documents, currentSemester);
 				continue;
 			}
 
-			final Path folderDirectory = parentDirectory.resolve(FileBrowser.removeIllegalCharacters(folder.name));
-			if (!Files.isDirectory(folderDirectory)) {
-				Files.createDirectory(folderDirectory);
-			}
+			final String folderName = FileBrowser.removeIllegalCharacters(folder.name);
+			final Path folderDirectory = parentDirectory.resolve(folderName);
+			final BasicFileAttributes attributes = getAttributes(entries, folderDirectory, folderName);
+
+			if (attributes != null && attributes.isDirectory()) {
+				final Map<String, BasicFileAttributes> folderEntries = readDirectory(folderDirectory);
+				final Map<String, Boolean> folderDocuments = new HashMap<>();
 
-			doFolder(phaser, folder, folderDirectory);
+				doFolder(planner, folder, folderDirectory, folderEntries, folderDocuments, currentSemester);
+				removeStaleParts(folderDirectory, folderEntries, folderDocuments);
+
+			} else {
+				/* New directory, there is nothing to read. Merged folders share the directory. */
+				Files.createDirectories(folderDirectory);
+				entries.put(normalize(folderName), Files.readAttributes(folderDirectory, BasicFileAttributes.class));
+
+				doFolder(planner, folder, folderDirectory, new HashMap<>(), new HashMap<>(), currentSemester);
+			}
 		}
 
 		synchronized (folderNode.documents) {
 			for (final DocumentTreeNode document : folderNode.documents) {
-				doDocument(phaser, folderNode, document, parentDirectory);
+				doDocument(planner, folderNode, document, parentDirectory, entries, documents, currentSemester);
 			}
 		}
 	}
@@ -131,52 +449,214 @@ public class TreeSync extends TreeBuilder {
 	/**
 	 * Document node handler.
 	 * 
-	 * @param phaser
+	 * @param planner Download planner
 	 * @param folderNode Parent folder tree-node
 	 * @param documentNode Document tree-node
 	 * @param parentDirectory Path to parent directory
+	 * @param entries Attributes of the parent directory entries
+	 * @param documents Documents of the parent directory, true if the download is pending
+	 * @param currentSemester True if the document belongs to the current semester
 	 * @throws IOException 
 	 */
-	private void doDocument(final Phaser phaser, final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path parentDirectory) throws IOException {
+	private void doDocument(final DownloadPlanner planner, final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path parentDirectory, final Map<String, BasicFileAttributes> entries, final Map<String, Boolean> documents, final boolean currentSemester) throws IOException {
 		final String originalFileName = FileBrowser.removeIllegalCharacters(documentNode.name);
 		final Path documentFile = parentDirectory.resolve(originalFileName);
+		final BasicFileAttributes attributes = getAttributes(entries, documentFile, originalFileName);
 
-		if (!Files.exists(documentFile)) {
+		if (skipFailedDownloads && failedDownloads.contains(documentNode.documentId)) {
+			/* Already failed in this run, the error is reported once. The partial download is kept. */
+			documents.put(normalize(originalFileName), true);
+			return;
+		}
+
+		/* Unknown size or timestamp counts as changed. */
+		final boolean pending = attributes == null || documentNode.fileSize == null || documentNode.chDate == null
+				|| attributes.size() != documentNode.fileSize || attributes.lastModifiedTime().toMillis() != documentNode.chDate * 1000L;
+		documents.put(normalize(originalFileName), pending);
+
+		if (attributes == null) {
 			/* Download new file. */
-			phaser.register();
-			threadPool.execute(new DownloadDocumentJob(this, phaser, folderNode, documentNode, documentFile));
+			planner.add(folderNode, documentNode, documentFile, currentSemester);
 
 			if (LOG.isLoggable(Level.INFO)) {
 				LOG.info("New: " + originalFileName);
 			}
 
-		} else if (Files.size(documentFile) != documentNode.fileSize || Files.getLastModifiedTime(documentFile).toMillis() != documentNode.chDate * 1000L) {
+		} else if (pending) {
 			/* Document has changed, we will download it again. */
 
 			if (!CONFIG.isOverwriteFiles()) {
 				/* Overwrite files is disabled, we append a version number to the old document filename. */
-				Path renameFile;
+				String renameFileName;
 				int i = 0;
 
 				do {
 					i++;
-					renameFile = parentDirectory.resolve(FileBrowser.appendFilename(originalFileName, "_v" + i));
-				} while(Files.exists(renameFile));
+					renameFileName = FileBrowser.appendFilename(originalFileName, "_v" + i);
+				} while(getAttributes(entries, parentDirectory.resolve(renameFileName), renameFileName) != null);
 
-				Files.move(documentFile, renameFile);
+				Files.move(documentFile, parentDirectory.resolve(renameFileName));
+				entries.put(normalize(renameFileName), attributes);
 
 				if (LOG.isLoggable(Level.WARNING)) {
-					LOG.warning("Renamed: " + originalFileName + " to " + renameFile.getFileName());
+					LOG.warning("Renamed: " + originalFileName + " to " + renameFileName);
 				}
 			}
 
 			/* Download modified file. */
-			phaser.register();
-			threadPool.execute(new DownloadDocumentJob(this, phaser, folderNode, documentNode, documentFile));
+			planner.add(folderNode, documentNode, documentFile, currentSemester);
 
 			if (LOG.isLoggable(Level.WARNING)) {
 				LOG.warning("Modified: " + originalFileName);
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Remove partial downloads which will not be resumed.
+	 * 
+	 * A part file is stale if its document is up to date or not in the folder anymore (deleted or renamed).
+	 * Part files of unknown documents are only removed together with their metadata file,
+	 * so files of the user which happen to end with the part extension are kept.
+	 * 
+	 * @param directory Path to directory
+	 * @param entries Attributes of the directory entries
+	 * @param documents Documents of the directory, true if the download is pending
+	 * @throws IOException
+	 */
+	private void removeStaleParts(final Path directory, final Map<String, BasicFileAttributes> entries, final Map<String, Boolean> documents) throws IOException {
+		if (pipelined) {
+			/* Downloads of the pipelined sync run concurrently, stale parts are removed by the final sync. */
+			return;
+		}
+
+		for (final String fileName : entries.keySet()) {
+			if (!fileName.endsWith(FileDownload.PART_EXTENSION) || documents.containsKey(fileName)) {
+				continue;
+			}
+
+			final String documentName = fileName.substring(0, fileName.length() - FileDownload.PART_EXTENSION.length());
+			final Boolean pending = documents.get(documentName);
+
+			if (pending == null ? entries.containsKey(fileName + ".json") : !pending) {
+				FileDownload.deletePart(directory.resolve(documentName));
+
+				if (LOG.isLoggable(Level.INFO)) {
+					LOG.info("Removed stale part: " + fileName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the attributes of all directory entries in one pass.
+	 * 
+	 * Replaces the exists/size/mtime calls per document, the directory stream of
+	 * some platforms (e.g. Windows) even returns the attributes with the listing.
+	 * 
+	 * @param directory Path to directory
+	 * @return Attributes by (normalized) file name
+	 * @throws IOException
+	 */
+	private static Map<String, BasicFileAttributes> readDirectory(final Path directory) throws IOException {
+		final Map<String, BasicFileAttributes> entries = new HashMap<>();
+
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (final Path entry : stream) {
+				try {
+					entries.put(normalize(entry.getFileName().toString()), Files.readAttributes(entry, BasicFileAttributes.class));
+
+				} catch (NoSuchFileException e) {
+					/* Deleted meanwhile. */
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Get attributes of a directory entry.
+	 * 
+	 * The entries are keyed by their exact name. On a case-insensitive file system (e.g. NTFS, APFS)
+	 * the entry might exist with a different case, so a miss is checked on the file system.
+	 * 
+	 * @param entries Attributes of the directory entries
+	 * @param file Path to directory entry
+	 * @param fileName File name
+	 * @return Attributes or null if the entry does not exist
+	 * @throws IOException
+	 */
+	private static BasicFileAttributes getAttributes(final Map<String, BasicFileAttributes> entries, final Path file, final String fileName) throws IOException {
+		final BasicFileAttributes attributes = entries.get(normalize(fileName));
+		if (attributes != null) {
+			return attributes;
+		}
+
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class);
+
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Normalize file name, some file systems (e.g. HFS+) return decomposed unicode names.
+	 * 
+	 * @param fileName File name
+	 * @return NFC normalized file name
+	 */
+	private static String normalize(final String fileName) {
+		return Normalizer.normalize(fileName, Normalizer.Form.NFC);
+	}
+
+	/**
+	 * Reserve disk space for downloads.
+	 * 
+	 * The space is released by the download jobs, once they are done.
+	 * 
+	 * @param bytes Size of the downloads
+	 * @throws DiskSpaceException If the usable space of the sync root is too small
+	 * @throws IOException
+	 */
+	private void reserveSpace(final long bytes) throws IOException {
+		if (bytes == 0) {
+			return;
+		}
+
+		final long usableSpace = Files.getFileStore(rootDirectory).getUsableSpace();
+		final long reserved = reservedSpace.addAndGet(bytes);
+
+		if (reserved + MIN_FREE_SPACE > usableSpace) {
+			reservedSpace.addAndGet(-bytes);
+			throw new DiskSpaceException("Not enough disk space: " + (reserved + MIN_FREE_SPACE) / (1024 * 1024)
+					+ " MiB needed, " + usableSpace / (1024 * 1024) + " MiB available");
+		}
+	}
+
+	/**
+	 * Submit download jobs in plan order.
+	 * 
+	 * A failed download is added to the error summary, all other downloads continue.
+	 * 
+	 * @param jobs Download jobs
+	 * @param plan Ordered downloads
+	 */
+	private void download(final List<CompletableFuture<Void>> jobs, final List<DownloadPlanner.Download> plan) {
+		for (final DownloadPlanner.Download download : plan) {
+			final long size = download.documentNode.fileSize == null ? 0 : download.documentNode.fileSize;
+
+			numberOfDownloads.incrementAndGet();
+			jobs.add(submit(new DownloadDocumentJob(this, download.folderNode, download.documentNode, download.documentFile))
+					.whenComplete((result, e) -> reservedSpace.addAndGet(-size))
+					.exceptionally(e -> {
+						if (download.documentNode.documentId != null) {
+							failedDownloads.add(download.documentNode.documentId);
+						}
+						handleError(download.documentNode.name, e);
+						return null;
+					}));
+		}
+	}
+}
@@ -1,25 +1,27 @@
 package de.uni.hannover.studip.sync.models.jobs;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.RejectedExecutionException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
-import org.scribe.exceptions.OAuthConnectionException;
-
 import de.elanev.studip.android.app.backend.datamodel.Course;
 import de.elanev.studip.android.app.backend.datamodel.Courses;
-import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.CourseTreeNode;
 import de.uni.hannover.studip.sync.datamodel.SemesterTreeNode;
 import de.uni.hannover.studip.sync.exceptions.NotFoundException;
 import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
 import de.uni.hannover.studip.sync.models.Config;
-import de.uni.hannover.studip.sync.models.OAuth;
+import de.uni.hannover.studip.sync.models.FileIndex;
 import de.uni.hannover.studip.sync.models.RestApi;
 import de.uni.hannover.studip.sync.models.TreeBuilder;
-import javafx.application.Platform;
+import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
 
 /**
  * Build courses job.
@@ -27,7 +29,7 @@ import javafx.application.Platform;
  * @author Lennart Glauer
  * @notice Thread safe
  */
-public class BuildCoursesJob implements Runnable {
+public class BuildCoursesJob implements Callable<CompletableFuture<Void>> {
 	
 	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	
@@ -35,71 +37,177 @@ public class BuildCoursesJob implements Runnable {
 	 * TreeBuilder.
 	 */
 	private final TreeBuilder builder;
-
-	/**
-	 * Phaser.
-	 */
-	private final Phaser phaser;
 	
 	/**
 	 * Semester node.
 	 */
 	private final SemesterTreeNode semesterNode;
 
+	/**
+	 * Semester node of the previous tree (read only), may be null.
+	 */
+	private final SemesterTreeNode cachedNode;
+
+	/**
+	 * If true only the course list is refreshed, the documents are not crawled.
+	 */
+	private final boolean listOnly;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param semesterNode Semester tree-node
+	 * @param cachedNode Semester tree-node of the previous tree or null
+	 */
+	public BuildCoursesJob(final TreeBuilder builder, final SemesterTreeNode semesterNode, final SemesterTreeNode cachedNode) {
+		this(builder, semesterNode, cachedNode, false);
+	}
+
 	/**
 	 * Constructor.
 	 * 
-	 * @param phaser
 	 * @param semesterNode Semester tree-node
+	 * @param cachedNode Semester tree-node of the previous tree or null
+	 * @param listOnly If true only the course list is refreshed, the documents are not crawled
 	 */
-	public BuildCoursesJob(final TreeBuilder builder, final Phaser phaser, final SemesterTreeNode semesterNode) {
+	public BuildCoursesJob(final TreeBuilder builder, final SemesterTreeNode semesterNode, final SemesterTreeNode cachedNode, final boolean listOnly) {
 		this.builder = builder;
-		this.phaser = phaser;
 		this.semesterNode = semesterNode;
+		this.cachedNode = cachedNode;
+		this.listOnly = listOnly;
 	}
 
 	@Override
-	public void run() {
-		try {
-			CourseTreeNode courseNode;
-
-			/* Get subscribed courses. */
-			final Courses courses = RestApi.getAllCoursesBySemesterId(Config.getInstance().getUserId(), semesterNode.semesterId);
-			if (courses.collection == null) {
-				// Empty collection
-				return;
+	public CompletableFuture<Void> call() throws UnauthorizedException, NotFoundException, IOException {
+		CourseTreeNode courseNode;
+
+		/* Get subscribed courses. */
+		final Courses courses = RestApi.getAllCoursesBySemesterId(Config.getInstance().getUserId(), semesterNode.semesterId);
+		if (courses.collection == null) {
+			// Empty collection
+			return CompletableFuture.completedFuture(null);
+		}
+
+		/* Courses of the current semester change more often than old ones. */
+		final long now = System.currentTimeMillis() / 1000L;
+		semesterNode.updateTime = now;
+		final long cacheTime = TreeBuilder.isCurrentSemester(semesterNode)
+				? StudIPApiProvider.CACHE_TIME
+				: StudIPApiProvider.LARGE_CACHE_TIME;
+
+		final Map<String, CourseTreeNode> courseCache = new HashMap<>();
+		if (cachedNode != null) {
+			for (final CourseTreeNode course : cachedNode.courses) {
+				courseCache.put(course.courseId, course);
+			}
+		}
+
+		if (listOnly) {
+			refreshCourseList(courses, courseCache);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		final List<CourseTreeNode> cachedCourses = new ArrayList<>();
+		final Map<CourseTreeNode, CourseTreeNode> expiredCourses = new LinkedHashMap<>();
+
+		for (final Course course : courses.collection.values()) {
+			final CourseTreeNode cachedCourseNode = courseCache.get(course.courseId);
+
+			if (cachedCourseNode != null && now - cachedCourseNode.updateTime < cacheTime) {
+				/* Reuse cached course node, only update the course meta data. */
+				cachedCourseNode.title = course.title;
+				cachedCourseNode.type = course.type;
+				semesterNode.courses.add(cachedCourseNode);
+				cachedCourses.add(cachedCourseNode);
+				continue;
 			}
-			phaser.bulkRegister(courses.collection.size());
 
-			for (final Course course : courses.collection.values()) {
-				semesterNode.courses.add(courseNode = new CourseTreeNode(course));
+			semesterNode.courses.add(courseNode = new CourseTreeNode(course));
+			expiredCourses.put(courseNode, cachedCourseNode);
+		}
 
-				builder.execute(new BuildDocumentsJob(builder, phaser, courseNode, courseNode.root, new HashSet<String>()));
+		/*
+		 * All courses must be added before the course directories are resolved,
+		 * because exercises are matched with their lectures.
+		 */
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
 
-				LOG.info(courseNode.title);
+		for (final CourseTreeNode cachedCourseNode : cachedCourses) {
+			final Path courseDirectory = builder.getCourseDirectory(semesterNode, cachedCourseNode);
+			if (courseDirectory != null) {
+				jobs.addAll(builder.onFolderDone(cachedCourseNode.root, courseDirectory, true));
 			}
+		}
 
-		} catch (OAuthConnectionException | IOException | RejectedExecutionException e) {
-			/* Connection failed. */
-			builder.stopPending = true;
+		for (final Map.Entry<CourseTreeNode, CourseTreeNode> entry : expiredCourses.entrySet()) {
+			final CourseTreeNode newNode = entry.getKey();
+			final CourseTreeNode cachedCourseNode = entry.getValue();
+
+			/* Unchanged folders of an expired course node are reused. */
+			jobs.add(BuildDocumentsJob.submit(builder, newNode, newNode.root, new FileIndex(),
+					cachedCourseNode == null ? null : cachedCourseNode.root,
+					builder.getCourseDirectory(semesterNode, newNode))
+					.exceptionally(e -> {
+						builder.handleError(newNode.title, e);
+						markStale(newNode, cachedCourseNode);
+						return null;
+					}));
+
+			LOG.info(newNode.title);
+		}
 
-		} catch (UnauthorizedException e) {
-			/* Invalid oauth access token. */
-			Platform.runLater(() -> OAuth.getInstance().removeAccessToken());
-			builder.stopPending = true;
+		builder.updateProgressLabel(semesterNode.title);
+
+		return TreeBuilder.allOf(jobs);
+	}
+
+	/**
+	 * Refresh the course list of a semester which is not synced.
+	 * 
+	 * The previous course nodes are kept as they are, new courses are added without documents
+	 * and marked stale, so they are crawled once the semester is synced.
+	 * 
+	 * @param courses Subscribed courses
+	 * @param courseCache Maps course id to course tree-node of the previous tree
+	 */
+	private void refreshCourseList(final Courses courses, final Map<String, CourseTreeNode> courseCache) {
+		for (final Course course : courses.collection.values()) {
+			CourseTreeNode courseNode = courseCache.get(course.courseId);
 
-		} catch (NotFoundException e) {
-			/* Course does not exist. */
-			throw new IllegalStateException(e);
+			if (courseNode == null) {
+				courseNode = new CourseTreeNode(course);
+				courseNode.updateTime = 0;
 
-		} finally {
-			/* Job done. */
-			if (builder.stopPending || Main.exitPending) {
-				phaser.forceTermination();
-				builder.shutdownNow();
 			} else {
-				builder.updateProgressLabel(semesterNode.title);
-				phaser.arrive();
+				courseNode.title = course.title;
+				courseNode.type = course.type;
+			}
+
+			semesterNode.courses.add(courseNode);
+		}
+
+		builder.updateProgressLabel(semesterNode.title);
+	}
+
+	/**
+	 * Course subtree failed, keep the previous course node if possible.
+	 * The course is marked stale so the next update requests it again.
+	 * 
+	 * @param courseNode Incomplete course tree-node
+	 * @param cachedCourseNode Course tree-node of the previous tree or null
+	 */
+	private void markStale(final CourseTreeNode courseNode, final CourseTreeNode cachedCourseNode) {
+		if (cachedCourseNode == null) {
+			courseNode.updateTime = 0;
+			return;
+		}
+
+		cachedCourseNode.updateTime = 0;
+
+		synchronized (semesterNode.courses) {
+			final int i = semesterNode.courses.indexOf(courseNode);
+			if (i != -1) {
+				semesterNode.courses.set(i, cachedCourseNode);
 			}
 		}
 	}
@@ -1,29 +1,29 @@
 package de.uni.hannover.studip.sync.models.jobs;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.scribe.exceptions.OAuthConnectionException;
-
-import de.elanev.studip.android.app.backend.datamodel.Document;
-import de.elanev.studip.android.app.backend.datamodel.DocumentFolder;
-import de.elanev.studip.android.app.backend.datamodel.DocumentFolders;
-import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.CourseTreeNode;
 import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
 import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
 import de.uni.hannover.studip.sync.exceptions.ForbiddenException;
 import de.uni.hannover.studip.sync.exceptions.NotFoundException;
 import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
-import de.uni.hannover.studip.sync.models.OAuth;
+import de.uni.hannover.studip.sync.models.FileIndex;
 import de.uni.hannover.studip.sync.models.RestApi;
 import de.uni.hannover.studip.sync.models.TreeBuilder;
 import de.uni.hannover.studip.sync.models.TreeConflict;
-import javafx.application.Platform;
+import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
+import de.uni.hannover.studip.sync.utils.FileBrowser;
 
 /**
  * Build files job.
@@ -31,7 +31,7 @@ import javafx.application.Platform;
  * @author Lennart Glauer
  * @notice Thread safe
  */
-public class BuildDocumentsJob implements Runnable {
+public class BuildDocumentsJob implements Callable<CompletableFuture<Void>> {
 	
 	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 
@@ -40,11 +40,6 @@ public class BuildDocumentsJob implements Runnable {
 	 */
 	private final TreeBuilder builder;
 
-	/**
-	 * Phaser.
-	 */
-	private final Phaser phaser;
-	
 	/**
 	 * Course node.
 	 */
@@ -56,94 +51,192 @@ public class BuildDocumentsJob implements Runnable {
 	private final DocumentFolderTreeNode parentNode;
 
 	/**
-	 * File index for duplicate check.
+	 * Merge slot in the file index of the parent folder's directory.
 	 */
-	private final Set<String> fileIndex;
+	private final FileIndex.Slot slot;
+
+	/**
+	 * Folder node of the previous tree (read only).
+	 * Unchanged subfolders are reused from this node, may be null.
+	 */
+	private final DocumentFolderTreeNode cachedNode;
+
+	/**
+	 * Local directory of the parent folder node.
+	 * If not null the documents are synchronized while the tree is built.
+	 */
+	private final Path directory;
 
 	/**
 	 * Constructor.
 	 * 
-	 * @param phaser
 	 * @param courseNode Course tree-node
 	 * @param parentNode Folder tree-node
+	 * @param slot Merge slot of the folder
+	 * @param cachedNode Folder tree-node of the previous tree or null
+	 * @param directory Local directory of the folder or null
 	 */
-	public BuildDocumentsJob(final TreeBuilder builder, final Phaser phaser, final CourseTreeNode courseNode, final DocumentFolderTreeNode parentNode, final Set<String> fileIndex) {
+	private BuildDocumentsJob(final TreeBuilder builder, final CourseTreeNode courseNode, final DocumentFolderTreeNode parentNode, final FileIndex.Slot slot, final DocumentFolderTreeNode cachedNode, final Path directory) {
 		this.builder = builder;
-		this.phaser = phaser;
 		this.courseNode = courseNode;
 		this.parentNode = parentNode;
-		this.fileIndex = fileIndex;
+		this.slot = slot;
+		this.cachedNode = cachedNode;
+		this.directory = directory;
 	}
 
-	@Override
-	public void run() {
-		try {
-			/* Folder merges must be mutually exclusive. */
-			synchronized (fileIndex) {
-				DocumentFolderTreeNode folderNode;
-				DocumentTreeNode documentNode;
-
-				final HashMap<String, Set<String>> fileIndexMap = new HashMap<>();
-
-				/*
-				 * Get course folder content.
-				 * If parent node is the root course folder the folder id is null.
-				 */
-				final DocumentFolders folders = RestApi.getAllDocumentsByRangeAndFolderId(courseNode.courseId, parentNode.folderId);
-				phaser.bulkRegister(folders.subfolders.size());
-
-				/* Folders. */
-				for (final DocumentFolder folder : folders.subfolders) {
-					if (folder.id == null || folder.name == null) {
-						/* Folder not readable! */
-						phaser.arrive();
-						continue;
+	/**
+	 * Submit build documents job.
+	 * 
+	 * The folder is registered in the file index before it is submitted,
+	 * so merged folders are merged in a deterministic order.
+	 * 
+	 * @param courseNode Course tree-node
+	 * @param parentNode Folder tree-node
+	 * @param fileIndex File index of the folder's directory
+	 * @param cachedNode Folder tree-node of the previous tree or null
+	 * @param directory Local directory of the folder or null
+	 * @return Future which completes once the folder subtree is done
+	 */
+	public static CompletableFuture<Void> submit(final TreeBuilder builder, final CourseTreeNode courseNode, final DocumentFolderTreeNode parentNode, final FileIndex fileIndex, final DocumentFolderTreeNode cachedNode, final Path directory) {
+		final FileIndex.Slot slot = fileIndex.register();
+
+		return builder.submit(new BuildDocumentsJob(builder, courseNode, parentNode, slot, cachedNode, directory))
+				.whenComplete((result, e) -> {
+					if (e != null) {
+						/* Do not block merged folders. */
+						slot.cancel();
 					}
+				});
+	}
 
-					/* Get folder index (merged folders use same index) and rename the folder if it's name already exists. */
-					final Set<String> folderFileIndex = TreeConflict.resolveFolderNameConflict(fileIndex, fileIndexMap, folder);
-					parentNode.folders.add(folderNode = new DocumentFolderTreeNode(folder));
+	@Override
+	public CompletableFuture<Void> call() throws UnauthorizedException, IOException {
+		/*
+		 * Get course folder content.
+		 * If parent node is the root course folder the folder id is null.
+		 * Merged folders are fetched in parallel, only the merge step is serialized.
+		 */
+		final DocumentFolderTreeNode listing;
+		try {
+			listing = RestApi.getFolderListingByRangeAndFolderId(courseNode.courseId, parentNode.folderId);
 
-					builder.execute(new BuildDocumentsJob(builder, phaser, courseNode, folderNode, folderFileIndex));
+		} catch (ForbiddenException | NotFoundException e) {
+			/*
+			 * User does not have the required permissions
+			 * or folder does not exist.
+			 */
+			if (LOG.isLoggable(Level.WARNING)) {
+				LOG.warning("Folder not readable: " + parentNode.name);
+			}
+			slot.cancel();
+			return CompletableFuture.completedFuture(null);
+		}
 
-					LOG.info(folderNode.name);
-				}
+		builder.updateProgressLabel(courseNode.title);
 
-				/* Documents. */
-				for (final Document document : folders.file_refs) {
-					/* Rename the document if it's filename already exists. */
-					TreeConflict.resolveFileNameConflict(fileIndex, document);
-					parentNode.documents.add(documentNode = new DocumentTreeNode(document));
+		return slot.complete(fileIndex -> merge(fileIndex, listing));
+	}
 
-					LOG.info(documentNode.name);
-				}
+	/**
+	 * Merge folder content into the tree.
+	 * 
+	 * @param fileIndex Used names of the folder's directory
+	 * @param listing Detached folder tree-node with the folder content
+	 * @return Future of the started child jobs
+	 * @throws IOException
+	 */
+	private CompletableFuture<Void> merge(final Set<String> fileIndex, final DocumentFolderTreeNode listing) throws IOException {
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+		final Map<String, FileIndex> fileIndexMap = new HashMap<>();
+		final FileIndex parentFileIndex = slot.getFileIndex();
+
+		/* Folders. */
+		for (final DocumentFolderTreeNode folderNode : listing.folders) {
+			if (folderNode.folderId == null || folderNode.name == null) {
+				/* Folder not readable! */
+				continue;
 			}
 
-		} catch (OAuthConnectionException | IOException | RejectedExecutionException e) {
-			/* Connection failed. */
-			builder.stopPending = true;
+			/* Get folder index (merged folders use same index) and rename the folder if it's name already exists. */
+			final FileIndex folderFileIndex = TreeConflict.resolveFolderNameConflict(parentFileIndex, fileIndexMap, folderNode);
+			parentNode.folders.add(folderNode);
 
-		} catch (UnauthorizedException e) {
-			/* Invalid oauth access token. */
-			Platform.runLater(() -> OAuth.getInstance().removeAccessToken());
-			builder.stopPending = true;
+			final Path folderDirectory = getFolderDirectory(folderNode);
+			final DocumentFolderTreeNode cachedFolderNode = getCachedFolder(folderNode.folderId);
+			if (cachedFolderNode != null && folderNode.chDate != null && folderNode.chDate.equals(cachedFolderNode.chDate)) {
+				/* Folder has not changed, reuse the existing subtree. */
+				folderNode.folders.addAll(cachedFolderNode.folders);
+				folderNode.documents.addAll(cachedFolderNode.documents);
 
-		} catch (ForbiddenException | NotFoundException e) {
-			/*
-			 * User does not have the required permissions
-			 * or folder does not exist.
-			 */
-			throw new IllegalStateException(e);
+				jobs.add(folderFileIndex.register().complete(names -> {
+					TreeConflict.indexFolder(names, folderNode);
+
+					return folderDirectory == null
+							? CompletableFuture.completedFuture(null)
+							: TreeBuilder.allOf(builder.onFolderDone(folderNode, folderDirectory, true));
+				}));
 
-		} finally {
-			/* Job done. */
-			if (builder.stopPending || Main.exitPending) {
-				phaser.forceTermination();
-				builder.shutdownNow();
 			} else {
-				builder.updateProgressLabel(courseNode.title);
-				phaser.arrive();
+				jobs.add(submit(builder, courseNode, folderNode, folderFileIndex, cachedFolderNode, folderDirectory));
+			}
+
+			LOG.info(folderNode.name);
+		}
+
+		/* Documents. */
+		for (final DocumentTreeNode documentNode : listing.documents) {
+			/* Rename the document if it's filename already exists. */
+			TreeConflict.resolveFileNameConflict(fileIndex, documentNode);
+			parentNode.documents.add(documentNode);
+
+			LOG.info(documentNode.name);
+		}
+
+		if (directory != null) {
+			/* Documents of this folder are complete, start downloads. */
+			jobs.addAll(builder.onFolderDone(parentNode, directory, false));
+		}
+
+		return TreeBuilder.allOf(jobs);
+	}
+
+	/**
+	 * Get local directory of a subfolder.
+	 * The default folder is merged with its parent.
+	 * 
+	 * @param folderNode Subfolder tree-node
+	 * @return Path to folder directory or null
+	 */
+	private Path getFolderDirectory(final DocumentFolderTreeNode folderNode) {
+		if (directory == null) {
+			return null;
+		}
+
+		return StudIPApiProvider.DEFAULT_FOLDER.equals(folderNode.name.trim())
+				? directory
+				: directory.resolve(FileBrowser.removeIllegalCharacters(folderNode.name));
+	}
+
+	/**
+	 * Find subfolder of the cached folder node.
+	 * 
+	 * @param folderId Stud.IP folder id
+	 * @return Cached folder tree-node or null
+	 */
+	private DocumentFolderTreeNode getCachedFolder(final String folderId) {
+		if (cachedNode == null) {
+			return null;
+		}
+
+		synchronized (cachedNode.folders) {
+			for (final DocumentFolderTreeNode folder : cachedNode.folders) {
+				if (folderId.equals(folder.folderId)) {
+					return folder;
+				}
 			}
 		}
+
+		return null;
 	}
 }
@@ -1,22 +1,21 @@
 package de.uni.hannover.studip.sync.models.jobs;
 
 import java.io.IOException;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
-import org.scribe.exceptions.OAuthConnectionException;
-
 import de.elanev.studip.android.app.backend.datamodel.Semester;
 import de.elanev.studip.android.app.backend.datamodel.Semesters;
-import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.SemesterTreeNode;
 import de.uni.hannover.studip.sync.datamodel.SemestersTreeNode;
 import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
-import de.uni.hannover.studip.sync.models.OAuth;
 import de.uni.hannover.studip.sync.models.RestApi;
 import de.uni.hannover.studip.sync.models.TreeBuilder;
-import javafx.application.Platform;
+import de.uni.hannover.studip.sync.oauth.StudIPApiProvider;
 
 /**
  * Build semesters job.
@@ -24,7 +23,7 @@ import javafx.application.Platform;
  * @author Lennart Glauer
  * @notice Thread safe
  */
-public class BuildSemestersJob implements Runnable {
+public class BuildSemestersJob implements Callable<CompletableFuture<Void>> {
 	
 	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 	
@@ -33,66 +32,91 @@ public class BuildSemestersJob implements Runnable {
 	 */
 	private final TreeBuilder builder;
 	
-	/**
-	 * Phaser.
-	 */
-	private final Phaser phaser;
-	
 	/**
 	 * Tree root node.
 	 */
 	private final SemestersTreeNode rootNode;
 
+	/**
+	 * Semester nodes of the previous tree (read only).
+	 */
+	private final Map<String, SemesterTreeNode> semesterCache;
+
+	/**
+	 * If false only the current semester is crawled.
+	 */
+	private final boolean doAllSemesters;
+
 	/**
 	 * Constructor.
 	 * 
-	 * @param phaser
 	 * @param rootNode Root tree-node
+	 * @param semesterCache Maps semester id to semester tree-node of the previous tree
+	 * @param doAllSemesters If false only the current semester is crawled
 	 */
-	public BuildSemestersJob(final TreeBuilder builder, final Phaser phaser, final SemestersTreeNode rootNode) {
+	public BuildSemestersJob(final TreeBuilder builder, final SemestersTreeNode rootNode, final Map<String, SemesterTreeNode> semesterCache, final boolean doAllSemesters) {
 		this.builder = builder;
-		this.phaser = phaser;
 		this.rootNode = rootNode;
+		this.semesterCache = semesterCache;
+		this.doAllSemesters = doAllSemesters;
 	}
 
 	@Override
-	public void run() {
-		try {
-			SemesterTreeNode semesterNode;
-
-			/* Get all visible semesters. */
-			final Semesters semesters = RestApi.getAllSemesters();
-			if (semesters.collection == null) {
-				// Empty collection
-				return;
-			}
-			phaser.bulkRegister(semesters.collection.size());
+	public CompletableFuture<Void> call() throws UnauthorizedException, IOException {
+		SemesterTreeNode semesterNode;
 
-			for (final Semester semester : semesters.collection.values()) {
-				rootNode.semesters.add(semesterNode = new SemesterTreeNode(semester));
+		/* Get all visible semesters. */
+		final Semesters semesters = RestApi.getAllSemesters();
+		if (semesters.collection == null) {
+			// Empty collection
+			return CompletableFuture.completedFuture(null);
+		}
 
-				builder.execute(new BuildCoursesJob(builder, phaser, semesterNode));
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+		final long now = System.currentTimeMillis() / 1000L;
 
-				LOG.info(semesterNode.title);
-			}
+		for (final Semester semester : semesters.collection.values()) {
+			rootNode.semesters.add(semesterNode = new SemesterTreeNode(semester));
+
+			final SemesterTreeNode newNode = semesterNode;
+			final SemesterTreeNode cachedNode = semesterCache.get(semester.id);
+
+			final boolean listOnly = !doAllSemesters && !TreeBuilder.isCurrentSemester(semesterNode);
+			if (listOnly) {
+				/*
+				 * Semester is not synced, keep the previous courses or leave a stub.
+				 * Stubs are built once they are synced, old course lists are refreshed after the cache time
+				 * without crawling the documents of the courses.
+				 */
+				if (cachedNode == null || cachedNode.stub) {
+					semesterNode.stub = true;
+					continue;
 
-		} catch (OAuthConnectionException | IOException | RejectedExecutionException e) {
-			/* Connection failed. */
-			builder.stopPending = true;
-
-		} catch (UnauthorizedException e) {
-			/* Invalid oauth access token. */
-			Platform.runLater(() -> OAuth.getInstance().removeAccessToken());
-			builder.stopPending = true;
-
-		} finally {
-			/* Job done. */
-			if (builder.stopPending || Main.exitPending) {
-				phaser.forceTermination();
-				builder.shutdownNow();
-			} else {
-				phaser.arrive();
+				} else if (now - cachedNode.updateTime < StudIPApiProvider.SEMESTER_CACHE_TIME) {
+					semesterNode.updateTime = cachedNode.updateTime;
+					semesterNode.courses.addAll(cachedNode.courses);
+					continue;
+				}
 			}
+
+			jobs.add(builder.submit(new BuildCoursesJob(builder, semesterNode, cachedNode, listOnly))
+					.exceptionally(e -> {
+						/* Course list not available, keep the courses of the previous tree. */
+						builder.handleError(newNode.title, e);
+						if (cachedNode == null) {
+							newNode.stub = true;
+
+						} else {
+							newNode.stub = cachedNode.stub;
+							newNode.updateTime = cachedNode.updateTime;
+							newNode.courses.addAll(cachedNode.courses);
+						}
+						return null;
+					}));
+
+			LOG.info(semesterNode.title);
 		}
+
+		return TreeBuilder.allOf(jobs);
 	}
-}
\ No newline at end of file
+}
@@ -4,24 +4,27 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import de.uni.hannover.studip.sync.exceptions.ServerErrorException;
-import org.scribe.exceptions.OAuthConnectionException;
-
-import de.uni.hannover.studip.sync.Main;
 import de.uni.hannover.studip.sync.datamodel.DocumentFolderTreeNode;
 import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.exceptions.DocumentChangedException;
 import de.uni.hannover.studip.sync.exceptions.ForbiddenException;
 import de.uni.hannover.studip.sync.exceptions.NotFoundException;
 import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
-import de.uni.hannover.studip.sync.models.OAuth;
+import de.uni.hannover.studip.sync.models.Config;
+import de.uni.hannover.studip.sync.models.ContentIndex;
 import de.uni.hannover.studip.sync.models.RestApi;
+import de.uni.hannover.studip.sync.models.TreeBuilder;
 import de.uni.hannover.studip.sync.models.TreeSync;
-import javafx.application.Platform;
+import de.uni.hannover.studip.sync.utils.FileDownload;
 
 /**
  * Download document job.
@@ -29,19 +32,26 @@ import javafx.application.Platform;
  * @author Lennart Glauer
  * @notice Thread safe
  */
-public class DownloadDocumentJob implements Runnable {
+public class DownloadDocumentJob implements Callable<CompletableFuture<Void>> {
 
 	private static final Logger LOG = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-	
+	private static final Config CONFIG = Config.getInstance();
+	private static final ContentIndex CONTENT_INDEX = ContentIndex.getInstance();
+
 	/**
-	 * TreeBuilder.
+	 * Minimum document size in bytes for a segmented download.
 	 */
-	private final TreeSync sync;
+	private static final long SEGMENT_THRESHOLD = 32L * 1024 * 1024;
 
 	/**
-	 * Phaser.
+	 * Minimum segment size in bytes.
+	 */
+	private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+	
+	/**
+	 * TreeBuilder.
 	 */
-	private final Phaser phaser;
+	private final TreeSync sync;
 
 	/**
 	 * Folder node.
@@ -60,48 +70,87 @@ public class DownloadDocumentJob implements Runnable {
 	 */
 	private final Path documentFile;
 
+	/**
+	 * If true the document is not split into segments.
+	 */
+	private final boolean singleConnection;
+
 	/**
 	 * Download document job.
 	 * 
-	 * @param phaser
 	 * @param folderNode Parent folder tree-node
 	 * @param documentNode Document tree-node to download
 	 * @param documentFile Path to document file destination
 	 */
-	public DownloadDocumentJob(final TreeSync sync, final Phaser phaser, final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path documentFile) {
+	public DownloadDocumentJob(final TreeSync sync, final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path documentFile) {
+		this(sync, folderNode, documentNode, documentFile, false);
+	}
+
+	/**
+	 * Download document job.
+	 * 
+	 * @param folderNode Parent folder tree-node
+	 * @param documentNode Document tree-node to download
+	 * @param documentFile Path to document file destination
+	 * @param singleConnection If true the document is not split into segments
+	 */
+	private DownloadDocumentJob(final TreeSync sync, final DocumentFolderTreeNode folderNode, final DocumentTreeNode documentNode, final Path documentFile, final boolean singleConnection) {
 		this.sync = sync;
-		this.phaser = phaser;
 		this.folderNode = folderNode;
 		this.documentNode = documentNode;
 		this.documentFile = documentFile;
+		this.singleConnection = singleConnection;
 	}
 
 	@Override
-	public void run() {
+	public CompletableFuture<Void> call() throws UnauthorizedException, IOException {
+		final long startTime = System.currentTimeMillis();
+
 		try {
-			final long startTime = System.currentTimeMillis();
-			RestApi.downloadDocumentById(documentNode.documentId, documentFile);
-			final long endTime = System.currentTimeMillis();
+			final int segments = getSegments();
+			if (CONFIG.isDeduplicate() && CONTENT_INDEX.copyTwin(documentNode, documentFile, FileDownload.getPartFile(documentFile))) {
+				/* Identical document was already downloaded. */
+				FileDownload.deletePartEntry(documentFile);
 
-			if (LOG.isLoggable(Level.INFO)) {
-				LOG.info("Downloaded " + documentFile + " in " + (endTime - startTime) + "ms");
-			}
+			} else if (segments > 1) {
+				final CompletableFuture<Void> segmentJobs = downloadSegments(segments);
+				if (segmentJobs != null) {
+					return segmentJobs.handle((result, e) -> e).thenCompose(e -> {
+						if (e != null) {
+							final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+							if (!(cause instanceof DocumentChangedException)) {
+								throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+							}
 
-			/*
-			 * We use the last modified timestamp to detect file changes.
-			 * The timestamp must be the same as in the document node,
-			 * otherwise the file will be downloaded again.
-			 */
-			Files.setLastModifiedTime(documentFile, FileTime.fromMillis(documentNode.chDate * 1000L));
+							/* Document changed between the segment requests, download it again with a single connection. */
+							if (LOG.isLoggable(Level.WARNING)) {
+								LOG.warning("Changed during download: " + documentNode.name);
+							}
+
+							return sync.submit(new DownloadDocumentJob(sync, folderNode, documentNode, documentFile, true));
+						}
 
-		} catch (OAuthConnectionException | IOException | RejectedExecutionException e) {
-			/* Connection failed. */
-			sync.stopPending = true;
+						try {
+							if (Files.size(FileDownload.getPartFile(documentFile)) != documentNode.fileSize) {
+								throw new IOException("Incomplete download: " + documentNode.name);
+							}
 
-		} catch (UnauthorizedException e) {
-			/* Invalid oauth access token. */
-			Platform.runLater(() -> OAuth.getInstance().removeAccessToken());
-			sync.stopPending = true;
+							publish(startTime);
+
+						} catch (IOException e1) {
+							throw new CompletionException(e1);
+						}
+
+						sync.updateProgressLabel(documentNode.name);
+						return CompletableFuture.completedFuture(null);
+					});
+				}
+
+			} else {
+				RestApi.downloadDocument(documentNode, documentFile);
+			}
+
+			publish(startTime);
 
 		} catch (ForbiddenException | NotFoundException | ServerErrorException e) {
 			/*
@@ -116,17 +165,93 @@ public class DownloadDocumentJob implements Runnable {
 			if (LOG.isLoggable(Level.WARNING)) {
 				LOG.warning("Removed document: " + documentNode.name);
 			}
+		}
 
-		} finally {
-			/* Job done. */
-			if (sync.stopPending || Main.exitPending) {
-				phaser.forceTermination();
-				sync.shutdownNow();
-			} else {
-				// TODO: Add course name in new line.
-				sync.updateProgressLabel(documentNode.name);
-				phaser.arrive();
-			}
+		// TODO: Add course name in new line.
+		sync.updateProgressLabel(documentNode.name);
+
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Get number of segments for this document.
+	 * 
+	 * Only large documents of known size are split, an interrupted single connection download is resumed instead.
+	 * 
+	 * @return Number of segments, 1 for a single connection download
+	 */
+	private int getSegments() {
+		final int segments = CONFIG.getDownloadSegments();
+		if (singleConnection || segments < 2 || documentNode.fileSize == null || documentNode.fileSize < SEGMENT_THRESHOLD
+				|| FileDownload.getResumeOffset(documentNode, documentFile) > 0) {
+			return 1;
+		}
+
+		return (int) Math.min(segments, documentNode.fileSize / MIN_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Download the first segment and submit jobs for all other segments.
+	 * 
+	 * The first segment tells if the server accepts ranges at all. Without a strong validator
+	 * the segments could mix two versions of the document, so it is downloaded with a single connection.
+	 * 
+	 * @param segments Number of segments
+	 * @return Future of the segment jobs or null if the full document was downloaded
+	 * @throws IOException
+	 */
+	private CompletableFuture<Void> downloadSegments(final int segments) throws UnauthorizedException, ForbiddenException, NotFoundException, ServerErrorException, IOException {
+		final long segmentSize = (documentNode.fileSize + segments - 1) / segments;
+
+		/* Segments are written out of order, so the part file can not be resumed. */
+		FileDownload.deletePartEntry(documentFile);
+		FileDownload.allocate(FileDownload.getPartFile(documentFile), documentNode.fileSize);
+
+		final String validator = RestApi.downloadDocumentRange(documentNode, documentFile, 0, segmentSize - 1, null);
+		if (validator == null) {
+			return null;
+		}
+
+		if (validator.isEmpty()) {
+			RestApi.downloadDocument(documentNode, documentFile);
+			return null;
+		}
+
+		final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+		for (long start = segmentSize; start < documentNode.fileSize; start += segmentSize) {
+			final long end = Math.min(start + segmentSize, documentNode.fileSize) - 1;
+			jobs.add(sync.submit(new DownloadSegmentJob(documentNode, documentFile, start, end, validator)));
+		}
+
+		return TreeBuilder.allOf(jobs);
+	}
+
+	/**
+	 * Publish the downloaded part file.
+	 * 
+	 * @param startTime Start time of the download
+	 * @throws IOException
+	 */
+	private void publish(final long startTime) throws IOException {
+		if (LOG.isLoggable(Level.INFO)) {
+			LOG.info("Downloaded " + documentFile + " in " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+
+		/*
+		 * We use the last modified timestamp to detect file changes.
+		 * The timestamp must be the same as in the document node,
+		 * otherwise the file will be downloaded again.
+		 */
+		final int durability = CONFIG.getDurability();
+		FileDownload.completePart(documentFile, FileTime.fromMillis(documentNode.chDate * 1000L), durability == 2);
+
+		if (durability == 1) {
+			/* Fsync at the end of the sync. */
+			sync.addUnsyncedFile(documentFile);
+		}
+
+		if (CONFIG.isDeduplicate()) {
+			CONTENT_INDEX.put(documentNode, documentFile);
 		}
 	}
 }
@@ -0,0 +1,72 @@
+package de.uni.hannover.studip.sync.models.jobs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.exceptions.ForbiddenException;
+import de.uni.hannover.studip.sync.exceptions.NotFoundException;
+import de.uni.hannover.studip.sync.exceptions.ServerErrorException;
+import de.uni.hannover.studip.sync.exceptions.UnauthorizedException;
+import de.uni.hannover.studip.sync.models.RestApi;
+
+/**
+ * Download document segment job.
+ * 
+ * @author Lennart Glauer
+ * @notice Thread safe
+ */
+public class DownloadSegmentJob implements Callable<CompletableFuture<Void>> {
+
+	/**
+	 * Document node.
+	 */
+	private final DocumentTreeNode documentNode;
+
+	/**
+	 * Document file.
+	 * The segment is written into its part file.
+	 */
+	private final Path documentFile;
+
+	/**
+	 * First byte position.
+	 */
+	private final long start;
+
+	/**
+	 * Last byte position (inclusive).
+	 */
+	private final long end;
+
+	/**
+	 * Validator of the first segment.
+	 */
+	private final String validator;
+
+	/**
+	 * Download document segment job.
+	 * 
+	 * @param documentNode Document tree-node to download
+	 * @param documentFile Path to document file destination
+	 * @param start First byte position
+	 * @param end Last byte position (inclusive)
+	 * @param validator Validator of the first segment
+	 */
+	public DownloadSegmentJob(final DocumentTreeNode documentNode, final Path documentFile, final long start, final long end, final String validator) {
+		this.documentNode = documentNode;
+		this.documentFile = documentFile;
+		this.start = start;
+		this.end = end;
+		this.validator = validator;
+	}
+
+	@Override
+	public CompletableFuture<Void> call() throws UnauthorizedException, ForbiddenException, NotFoundException, ServerErrorException, IOException {
+		RestApi.downloadDocumentRange(documentNode, documentFile, start, end, validator);
+
+		return CompletableFuture.completedFuture(null);
+	}
+}
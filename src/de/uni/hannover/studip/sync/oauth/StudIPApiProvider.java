@@ -50,6 +50,11 @@ public final class StudIPApiProvider extends DefaultApi10a
 	 */
 	public static final int LARGE_CACHE_TIME = 24 * 60 * 60;
 
+	/**
+	 * Cache time in seconds of the course list of a semester which is not synced.
+	 */
+	public static final int SEMESTER_CACHE_TIME = 7 * 24 * 60 * 60;
+
 	/**
 	 * Stud.IP course default folder name.
 	 */
@@ -70,22 +70,37 @@ public final class Cli {
 		try (final TreeSync tree = new TreeSync(Paths.get(rootDir))) {
 			final Path treeFile = Config.openTreeFile();
 
-			/* Update documents. */
-			try {
-				System.out.println("Updating...");
-				tree.update(treeFile);
-
-			} catch (NoSuchFileException | JsonParseException | JsonMappingException e) {
-				/* Invalid tree file. */
-				System.out.println("Building new tree...");
-				tree.build(treeFile);
+			if (CONFIG.isPipelineSync()) {
+				/* Update and download documents at once. */
+				System.out.println("Syncing...");
+				tree.updateAndSync(treeFile, CONFIG.isDownloadAllSemesters());
+				final int newDocuments = tree.getNumberOfDownloads();
+				if (newDocuments > 0) {
+					System.out.println("New documents: " + newDocuments);
+				}
+
+			} else {
+				/* Update documents. */
+				try {
+					System.out.println("Updating...");
+					tree.update(treeFile, CONFIG.isDownloadAllSemesters());
+
+				} catch (NoSuchFileException | JsonParseException | JsonMappingException e) {
+					/* Invalid tree file. */
+					System.out.println("Building new tree...");
+					tree.build(treeFile, CONFIG.isDownloadAllSemesters());
+				}
+
+				/* Download documents. */
+				System.out.println("Downloading...");
+				final int newDocuments = tree.sync(treeFile, CONFIG.isDownloadAllSemesters());
+				if (newDocuments > 0) {
+					System.out.println("New documents: " + newDocuments);
+				}
 			}
 
-			/* Download documents. */
-			System.out.println("Downloading...");
-			final int newDocuments = tree.sync(treeFile, CONFIG.isDownloadAllSemesters());
-			if (newDocuments > 0) {
-				System.out.println("New documents: " + newDocuments);
+			for (final String error : tree.getErrors()) {
+				System.out.println("Error: " + error);
 			}
 
 			System.out.println("Done.");
@@ -1,10 +1,27 @@
 package de.uni.hannover.studip.sync.utils;
 
-import java.io.BufferedInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.uni.hannover.studip.sync.datamodel.DocumentTreeNode;
+import de.uni.hannover.studip.sync.datamodel.PartFileEntry;
+import de.uni.hannover.studip.sync.models.BandwidthLimiter;
+import de.uni.hannover.studip.sync.models.BandwidthLimiter.Priority;
+import de.uni.hannover.studip.sync.models.Config;
 
 /**
  * File download utility class.
@@ -14,7 +31,24 @@ import java.nio.file.Path;
  */
 public final class FileDownload {
 
-	private static final int BUFFER_SIZE = 8192;
+	private static final Config CONFIG = Config.getInstance();
+	private static final ObjectMapper MAPPER = Config.getMapper();
+	private static final BandwidthLimiter BANDWIDTH = BandwidthLimiter.getInstance();
+
+	/**
+	 * Minimum download chunk size in bytes.
+	 */
+	private static final int MIN_CHUNK_SIZE = 8192;
+
+	/**
+	 * Number of bytes after which the resume offset of a sequential download is saved.
+	 */
+	private static final long CHECKPOINT_SIZE = 16L * 1024 * 1024;
+
+	/**
+	 * Partial download file extension.
+	 */
+	public static final String PART_EXTENSION = ".part";
 
 	private FileDownload() {
 		// Utility class.
@@ -28,17 +62,345 @@ public final class FileDownload {
 	 * @throws IOException
 	 */
 	public static long get(final InputStream is, final Path file) throws IOException {
-		try (final BufferedInputStream in = new BufferedInputStream(is); final FileOutputStream out = new FileOutputStream(file.toFile())) {
-			final byte buffer[] = new byte[BUFFER_SIZE];
+		return get(is, file, 0, Priority.NORMAL);
+	}
+
+	/**
+	 * Write inputstream to file, starting at the given position.
+	 * 
+	 * The stream is read in large chunks into a direct buffer which the file channel writes as it is,
+	 * there is no intermediate buffered stream. The chunk size is configurable.
+	 * The file is truncated to the position before the first write and only grows afterwards.
+	 * 
+	 * @param is Response input stream
+	 * @param file Path to file destination
+	 * @param position File position of the first byte
+	 * @param priority Bandwidth priority class
+	 * @throws IOException
+	 */
+	public static long get(final InputStream is, final Path file, final long position, final Priority priority) throws IOException {
+		try (final FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			out.truncate(position);
+			out.position(position);
+			return write(is, out, priority, null, null);
+		}
+	}
+
+	/**
+	 * Write inputstream to the preallocated part file of a resumable download, starting at the given position.
+	 * 
+	 * The resume offset is saved in the part file metadata every few megabytes (after the data was written
+	 * to the storage device) and once more if the transfer fails. The part file is truncated after the last byte
+	 * once the transfer is complete.
+	 * 
+	 * @param is Response input stream
+	 * @param file Path to file destination
+	 * @param entry Part file metadata
+	 * @param position File position of the first byte
+	 * @param priority Bandwidth priority class
+	 * @throws IOException
+	 */
+	public static long get(final InputStream is, final Path file, final PartFileEntry entry, final long position, final Priority priority) throws IOException {
+		entry.offset = position;
+		writePartEntry(file, entry);
+
+		try (final FileChannel out = FileChannel.open(getPartFile(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (entry.fileSize != null) {
+				allocate(out, entry.fileSize);
+			} else {
+				out.truncate(position);
+			}
+
+			out.position(position);
+			final long bytesWritten = write(is, out, priority, file, entry);
+			out.truncate(out.position());
+			return bytesWritten;
+		}
+	}
+
+	/**
+	 * Write inputstream to file at the given position (a segment of a preallocated file).
+	 * 
+	 * @param is Response input stream
+	 * @param file Path to file destination
+	 * @param position File position of the first byte
+	 * @param priority Bandwidth priority class
+	 * @throws IOException
+	 */
+	public static long getSegment(final InputStream is, final Path file, final long position, final Priority priority) throws IOException {
+		try (final FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			out.position(position);
+			return write(is, out, priority, null, null);
+		}
+	}
+
+	/**
+	 * Write inputstream to file channel in chunks.
+	 * 
+	 * Every chunk is subject to the bandwidth limit, the transport
+	 * throttles the sender if we read slower.
+	 * 
+	 * The JDK copies a heap buffer into a temporary direct buffer on every file channel write,
+	 * so the chunk is read into a direct buffer (the stream channel still copies through a small heap buffer).
+	 * 
+	 * @param is Response input stream
+	 * @param out File channel
+	 * @param priority Bandwidth priority class
+	 * @param file Path to file destination or null if the resume offset is not saved
+	 * @param entry Part file metadata or null if the resume offset is not saved
+	 * @throws IOException
+	 */
+	private static long write(final InputStream is, final FileChannel out, final Priority priority, final Path file, final PartFileEntry entry) throws IOException {
+		final int chunkSize = Math.max(MIN_CHUNK_SIZE, CONFIG.getDownloadChunkSize());
+		final long position = out.position();
+		long checkpoint = position;
+		boolean complete = false;
+
+		try (final ReadableByteChannel in = Channels.newChannel(is)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
 			long bytesWritten = 0;
 			int count;
 
-			while ((count = in.read(buffer, 0, BUFFER_SIZE)) > 0) {
-				out.write(buffer, 0, count);
+			/* Fill the whole chunk, so every write syscall transfers a large block. */
+			while ((count = fill(in, buffer)) > 0) {
+				BANDWIDTH.acquire(count, priority);
+
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
 				bytesWritten += count;
+
+				if (entry != null && position + bytesWritten - checkpoint >= CHECKPOINT_SIZE) {
+					checkpoint = position + bytesWritten;
+					out.force(false);
+					entry.offset = checkpoint;
+					writePartEntry(file, entry);
+				}
 			}
 
+			complete = true;
 			return bytesWritten;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Download interrupted!");
+
+		} finally {
+			if (entry != null && !complete && out.isOpen() && out.position() > checkpoint) {
+				/* Transfer failed, save the offset of the written bytes. An interrupt closes the channel, the last checkpoint is kept then. */
+				try {
+					entry.offset = out.position();
+					writePartEntry(file, entry);
+
+				} catch (IOException e) {
+					/* Keep the last checkpoint. */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read from channel until the buffer is full or the stream ends.
+	 * 
+	 * @param in Readable channel
+	 * @param buffer Buffer, flipped for writing afterwards
+	 * @return Number of bytes in the buffer
+	 * @throws IOException
+	 */
+	private static int fill(final ReadableByteChannel in, final ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining() && in.read(buffer) != -1) {
+			/* Read next block. */
+		}
+
+		buffer.flip();
+		return buffer.remaining();
+	}
+
+	/**
+	 * Preallocate file to the given size, existing content is kept.
+	 * 
+	 * Java has no portable fallocate: Extending the file allocates the space on
+	 * file systems without sparse files (e.g. NTFS), elsewhere the file is sparse.
+	 * 
+	 * @param file Path to file
+	 * @param size File size
+	 * @throws IOException
+	 */
+	public static void allocate(final Path file, final long size) throws IOException {
+		try (final FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			allocate(out, size);
+		}
+	}
+
+	/**
+	 * Preallocate file channel to the given size, existing content is kept.
+	 * 
+	 * @param out File channel
+	 * @param size File size
+	 * @throws IOException
+	 */
+	private static void allocate(final FileChannel out, final long size) throws IOException {
+		if (out.size() > size) {
+			out.truncate(size);
+
+		} else if (out.size() < size) {
+			out.write(ByteBuffer.allocate(1), size - 1);
+		}
+	}
+
+	/**
+	 * Get path of the partial download file.
+	 * 
+	 * @param file Path to file destination
+	 * @return Path to part file
+	 */
+	public static Path getPartFile(final Path file) {
+		return file.resolveSibling(file.getFileName() + PART_EXTENSION);
+	}
+
+	/**
+	 * Get path of the partial download metadata file.
+	 * 
+	 * @param file Path to file destination
+	 * @return Path to part metadata file
+	 */
+	private static Path getPartEntryFile(final Path file) {
+		return file.resolveSibling(file.getFileName() + PART_EXTENSION + ".json");
+	}
+
+	/**
+	 * Read partial download metadata.
+	 * 
+	 * @param file Path to file destination
+	 * @return Part file entry or null if there is no (valid) partial download
+	 */
+	public static PartFileEntry readPartEntry(final Path file) {
+		try (final InputStream is = Files.newInputStream(getPartEntryFile(file))) {
+			return MAPPER.readerFor(PartFileEntry.class).readValue(is);
+
+		} catch (IOException e) {
+			/* No partial download or invalid metadata. */
+			return null;
+		}
+	}
+
+	/**
+	 * Delete partial download metadata, the part file can not be resumed anymore.
+	 * 
+	 * @param file Path to file destination
+	 * @throws IOException
+	 */
+	public static void deletePartEntry(final Path file) throws IOException {
+		Files.deleteIfExists(getPartEntryFile(file));
+	}
+
+	/**
+	 * Delete partial download and its metadata.
+	 * 
+	 * @param file Path to file destination
+	 * @throws IOException
+	 */
+	public static void deletePart(final Path file) throws IOException {
+		Files.deleteIfExists(getPartFile(file));
+		deletePartEntry(file);
+	}
+
+	/**
+	 * Get offset of a resumable partial download.
+	 * 
+	 * @param document Document tree-node
+	 * @param file Path to file destination
+	 * @return Saved offset of the part file or 0 if the download must start over
+	 */
+	public static long getResumeOffset(final DocumentTreeNode document, final Path file) {
+		final PartFileEntry entry = readPartEntry(file);
+		if (document.fileSize == null || entry == null || entry.offset == null || !entry.matches(document)
+				|| entry.eTag == null && entry.lastModified == null) {
+			return 0;
+		}
+
+		try {
+			final long offset = entry.offset;
+			return offset < document.fileSize && offset <= Files.size(getPartFile(file)) ? offset : 0;
+
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Write partial download metadata.
+	 * 
+	 * @param file Path to file destination
+	 * @param entry Part file entry
+	 * @throws IOException
+	 */
+	public static void writePartEntry(final Path file, final PartFileEntry entry) throws IOException {
+		try (final OutputStream os = Files.newOutputStream(getPartEntryFile(file))) {
+			MAPPER.writerFor(PartFileEntry.class).writeValue(os, entry);
+		}
+	}
+
+	/**
+	 * Partial download is complete, publish the part file.
+	 * 
+	 * The modified time is set before the part file is moved to its destination,
+	 * so the destination is either missing, the old or the complete new document.
+	 * 
+	 * @param file Path to file destination
+	 * @param modifiedTime Last modified time of the document
+	 * @param force If true the file and its directory are written to the storage device
+	 * @throws IOException
+	 */
+	public static void completePart(final Path file, final FileTime modifiedTime, final boolean force) throws IOException {
+		final Path partFile = getPartFile(file);
+
+		Files.setLastModifiedTime(partFile, modifiedTime);
+		if (force) {
+			force(partFile);
+		}
+
+		try {
+			Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		deletePartEntry(file);
+
+		if (force) {
+			forceDirectory(file.getParent());
+		}
+	}
+
+	/**
+	 * Write file content and metadata to the storage device (fsync).
+	 * 
+	 * @param file Path to file
+	 * @throws IOException
+	 */
+	public static void force(final Path file) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Write directory entries to the storage device (fsync).
+	 * 
+	 * Some platforms (e.g. Windows) can not open directories, the entries are
+	 * written together with the file metadata there.
+	 * 
+	 * @param directory Path to directory
+	 */
+	public static void forceDirectory(final Path directory) {
+		try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+
+		} catch (IOException e) {
+			/* Not supported on this platform. */
 		}
 	}
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,8 +12,14 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 
 import de.uni.hannover.studip.sync.Main;
+import de.uni.hannover.studip.sync.models.BandwidthLimiter;
 import de.uni.hannover.studip.sync.models.Config;
+import de.uni.hannover.studip.sync.models.ConnectionStats;
+import de.uni.hannover.studip.sync.models.ContentIndex;
 import de.uni.hannover.studip.sync.models.OAuth;
+import de.uni.hannover.studip.sync.models.RequestLimiter;
+import de.uni.hannover.studip.sync.models.ResponseCache;
+import de.uni.hannover.studip.sync.models.SingleFlight;
 import de.uni.hannover.studip.sync.models.TreeSync;
 import de.uni.hannover.studip.sync.utils.SimpleAlert;
 import javafx.application.Platform;
@@ -24,7 +31,7 @@ import javafx.scene.control.ProgressIndicator;
 /**
  * 
  * @author Lennart Glauer
- *
+ * 
  */
 public class OverviewController extends AbstractController {
 
@@ -72,25 +79,44 @@ public class OverviewController extends AbstractController {
 
 				tree.setProgress(progress, progressLabel);
 
-				/* Update documents. */
-				try {
-					numberOfRequests = tree.update(treeFile);
+				if (CONFIG.isPipelineSync()) {
+					Platform.runLater(() -> syncButton.setText("Syncing..."));
 
-				} catch (NoSuchFileException | JsonParseException | JsonMappingException e) {
-					/* Invalid tree file. */
-					numberOfRequests = tree.build(treeFile);
-				}
+					/* Update and download documents at once. */
+					numberOfRequests = tree.updateAndSync(treeFile, CONFIG.isDownloadAllSemesters());
 
-				Platform.runLater(() -> {
-					progressLabel.setText("");
-					syncButton.setText("Downloading...");
-				});
+				} else {
+					/* Update documents. */
+					try {
+						numberOfRequests = tree.update(treeFile, CONFIG.isDownloadAllSemesters());
 
-				/* Download documents. */
-				numberOfRequests += tree.sync(treeFile, CONFIG.isDownloadAllSemesters());
+					} catch (NoSuchFileException | JsonParseException | JsonMappingException e) {
+						/* Invalid tree file. */
+						numberOfRequests = tree.build(treeFile, CONFIG.isDownloadAllSemesters());
+					}
+
+					Platform.runLater(() -> {
+						progressLabel.setText("");
+						syncButton.setText("Downloading...");
+					});
+
+					/* Download documents. */
+					numberOfRequests += tree.sync(treeFile, CONFIG.isDownloadAllSemesters());
+				}
+
+				final List<String> errors = tree.getErrors();
+				if (!errors.isEmpty()) {
+					Platform.runLater(() -> SimpleAlert.warning("Einige Veranstaltungen oder Dateien konnten nicht synchronisiert werden:\n" + String.join("\n", errors)));
+				}
 
 				if (LOG.isLoggable(Level.INFO)) {
 					LOG.info("Number of requests: " + numberOfRequests);
+					LOG.info(ResponseCache.getInstance().toString());
+					LOG.info(RequestLimiter.getInstance().toString());
+					LOG.info(SingleFlight.getInstance().toString());
+					LOG.info(ConnectionStats.getInstance().toString());
+					LOG.info(BandwidthLimiter.getInstance().toString());
+					LOG.info(ContentIndex.getInstance().toString());
 				}
 
 			} catch (IOException e) {